@@ -4,11 +4,16 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.AbstractMap;
+import java.util.AbstractSequentialList;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
@@ -50,8 +55,12 @@ public abstract class AbstractRelocationStrategy implements CarsharingRelocation
 	protected CarsharingRelocationParams rparams;
 	protected final ConcurrentHashMap<Id<ActivityFacility>, CarsharingStationDemand> demand;
 	protected final ConcurrentHashMap<Id<ActivityFacility>, Double> stations_active;
-	protected final LinkedList<CarsharingOperatorMobsim> operators;
-	protected final HashMap<CarsharingStationMobsim, ArrayList<CarsharingOperatorMobsim>> stations_operators_map;
+	/** @deprecated use m.getOperators().availableSet() */
+	@Deprecated
+	protected final List<CarsharingOperatorMobsim> operators;
+	/** @deprecated use m.getOperators().availableAt(station) */
+	@Deprecated
+	protected final Map<CarsharingStationMobsim, List<CarsharingOperatorMobsim>> stations_operators_map;
 	
 	
 	protected PrintWriter perf_writer;
@@ -69,7 +78,7 @@ public abstract class AbstractRelocationStrategy implements CarsharingRelocation
 	protected int staff_size;
 	protected int train_size;
 	
-	public AbstractRelocationStrategy(CarsharingManager m, TripRouter router) {
+	public AbstractRelocationStrategy(final CarsharingManager m, TripRouter router) {
 		this.m = m;
 		this.router = router;
 		this.choiceFactory = m.opChoiceFactory();
@@ -77,8 +86,42 @@ public abstract class AbstractRelocationStrategy implements CarsharingRelocation
 		this.rparams = m.getConfig().getRelocation();
 		this.demand = new ConcurrentHashMap<Id<ActivityFacility>, CarsharingStationDemand>();
 		this.stations_active = new ConcurrentHashMap<Id<ActivityFacility>, Double>();
-		this.operators = new LinkedList<CarsharingOperatorMobsim>();
-		this.stations_operators_map = new HashMap<CarsharingStationMobsim, ArrayList<CarsharingOperatorMobsim>>();
+		// deprecated read-only views, answered by the index of idle operators when read
+		this.operators = new AbstractSequentialList<CarsharingOperatorMobsim>() {
+			@Override
+			public ListIterator<CarsharingOperatorMobsim> listIterator(int index) {
+				return Collections.unmodifiableList(m.getOperators().availableSet()).listIterator(index);
+			}
+			@Override
+			public int size() {
+				return m.getOperators().availableSet().size();
+			}
+		};
+		this.stations_operators_map = new AbstractMap<CarsharingStationMobsim, List<CarsharingOperatorMobsim>>() {
+			@Override
+			public List<CarsharingOperatorMobsim> get(Object station) {
+				if(!(station instanceof CarsharingStationMobsim)) return null;
+				List<CarsharingOperatorMobsim> ops = m.getOperators().availableAt((CarsharingStationMobsim) station);
+				return ops.isEmpty() ? null : Collections.unmodifiableList(ops);
+			}
+			@Override
+			public boolean containsKey(Object station) {
+				return get(station) != null;
+			}
+			@Override
+			public Set<Map.Entry<CarsharingStationMobsim, List<CarsharingOperatorMobsim>>> entrySet() {
+				Map<CarsharingStationMobsim, List<CarsharingOperatorMobsim>> grouped = new LinkedHashMap<CarsharingStationMobsim, List<CarsharingOperatorMobsim>>();
+				for(CarsharingOperatorMobsim op : m.getOperators().availableSet()) {
+					List<CarsharingOperatorMobsim> ops = grouped.get(op.getLocation());
+					if(ops == null) {
+						ops = new ArrayList<CarsharingOperatorMobsim>();
+						grouped.put(op.getLocation(), ops);
+					}
+					ops.add(op);
+				}
+				return Collections.unmodifiableMap(grouped).entrySet();
+			}
+		};
 	}
 	
 	void init() {
@@ -122,34 +165,32 @@ public abstract class AbstractRelocationStrategy implements CarsharingRelocation
 	}
 	
 	@Override
-	public void updateRelocationList(int time) {
+	public synchronized void updateRelocationList(int time) {
 		boolean checked = this.time_step.check((int) time);
-		if(time%MIN_RELOCATION_STEP==0 || checked) {
-			this.operators.clear();
-			this.stations_operators_map.clear();
-			for(CarsharingOperatorMobsim op : this.m.getOperators().availableSet()) {
-				ArrayList<CarsharingOperatorMobsim> s = this.stations_operators_map.get(op.getLocation());
-				if(s == null) s = new ArrayList<CarsharingOperatorMobsim>();
-				s.add(op);
-				this.stations_operators_map.put(op.getLocation(), s);
-				this.operators.add(op);
-			}
-		}
 		this.update(time, checked);
 	}
 	
+	/**
+	 * Called by the offer model, possibly from several booking threads at once: 
+	 * the user relocations are serialized on the model, with its updates
+	 */
 	@Override
 	public List<CarsharingOffer> relocationList(int time, CarsharingDemand demand, List<CarsharingOffer> offers) {
 		if(!this.isActivated()) {
 			return new ArrayList<CarsharingOffer>();
 		}
-		return this.usrelocate(demand, offers);
+		synchronized(this) {
+			return this.usrelocate(demand, offers);
+		}
 	}
 	
 	@Override
 	public List<CarsharingRelocationTask> relocationList(int time) {
 		List<CarsharingRelocationTask> booked_tasks = new ArrayList<CarsharingRelocationTask>();
-		List<CarsharingRelocationTask> tasks = this.oprelocate();
+		List<CarsharingRelocationTask> tasks = null;
+		synchronized(this) {
+			tasks = this.oprelocate();
+		}
 		CarsharingRelocationTask sTask = null;
 		int accessTime = 0;
 		double accessDistance = 0;
@@ -270,8 +311,9 @@ public abstract class AbstractRelocationStrategy implements CarsharingRelocation
 			this.m.getOperators().clear();
 			PopulationFactory popFactory = this.m.getScenario().getPopulation().getFactory();
 			CarsharingStationMobsim[] stations = this.m.getStations().map().values().toArray(new CarsharingStationMobsim[0]);
+			List<CarsharingOperatorMobsim> staff = new ArrayList<CarsharingOperatorMobsim>(this.staff_size);
 			for(int i = 0; i < this.staff_size; i++) {
-				this.m.getOperators().add(
+				staff.add(
 						CarsharingOperatorFactory.Builder.
 						newInstance(m, popFactory.createPerson(Id.createPersonId("operator_" + i))).
 						setChoiceModel(this.choiceFactory).
@@ -279,6 +321,7 @@ public abstract class AbstractRelocationStrategy implements CarsharingRelocation
 						setTrainSize(this.train_size).
 						build());
 			}
+			this.m.getOperators().addAll(staff);
 		} else if(ops.get(0).getMaxRoadtrainSize() != this.train_size) {
 			for(CarsharingOperatorMobsim o : this.m.getOperators()) {
 				o.setMaxTrainSize(this.train_size);
@@ -0,0 +1,135 @@
+package org.matsim.contrib.gcs.carsharing;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingStation;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingStationMobsim;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingStations;
+import org.matsim.contrib.gcs.carsharing.core.KdTree;
+import org.matsim.contrib.gcs.carsharing.impl.CarsharingStationFactory;
+import org.matsim.core.network.NetworkUtils;
+
+/**
+ * Free floating parking spots. A spot is a station of type {@link #FLOATING} on a car link, it is built the first time
+ * a vehicle is offered to be dropped near the link and reused by the next offers, instead of a new station per offer.
+ * Its capacity is the number of vehicles the link can hold.
+ *
+ * The spots holding vehicles are kept in their own tree, apart from the stations: a spot enters it at dropoff and leaves it
+ * when its last vehicle is picked up.
+ */
+public class CarsharingFloatingSpots {
+
+	public static final String FLOATING = "FLOATING";
+
+	private final CarsharingManager m;
+	private final Map<Id<Link>, CarsharingStationMobsim> spots;
+	private final LinkedHashSet<CarsharingStationMobsim> parked;
+	private final KdTree<CarsharingStationMobsim> tree;
+
+	public CarsharingFloatingSpots(CarsharingManager m) {
+		this.m = m;
+		this.spots = new HashMap<Id<Link>, CarsharingStationMobsim>();
+		this.parked = new LinkedHashSet<CarsharingStationMobsim>();
+		this.tree = new KdTree<CarsharingStationMobsim>(1);
+	}
+
+	/**
+	 *
+	 * @param c
+	 * @return the spot of the car link nearest to the coordinate
+	 */
+	public synchronized CarsharingStationMobsim spot(Coord c) {
+		Link link = NetworkUtils.getNearestLink(this.m.getCarNetwork(), c);
+		CarsharingStationMobsim spot = this.spots.get(link.getId());
+		if(spot == null) {
+			int capacity = (int) Math.max(1, Math.floor(link.getLength() * link.getNumberOfLanes() / this.m.getCarNetwork().getEffectiveCellSize()));
+			CarsharingStation station = CarsharingStationFactory.
+					stationBuilder(this.m.getScenario(), FLOATING + "_" + link.getId(), link.getCoord()).
+					setCapacity(capacity).
+					setType(FLOATING).
+					build();
+			spot = this.m.buildStationMobsim(station);
+			this.spots.put(link.getId(), spot);
+		}
+		return spot;
+	}
+
+	/**
+	 * Index the spot after a dropoff, if it was not already
+	 * @param spot
+	 */
+	public synchronized void park(CarsharingStationMobsim spot) {
+		if(this.parked.add(spot)) {
+			Coord c = spot.facility().getCoord();
+			this.tree.put(c.getX(), c.getY(), spot);
+		}
+		this.tree.update(spot, CarsharingStations.VEHICLE_AVAILABILITY, this.m.booking().track(spot).vehicleAvailability());
+	}
+
+	/**
+	 * Drop the spot from the index after a pickup, if no vehicle is left
+	 * @param spot
+	 */
+	public synchronized void leave(CarsharingStationMobsim spot) {
+		if(spot.parking().getFleetSize() > 0 || !this.parked.remove(spot)) return;
+		Coord c = spot.facility().getCoord();
+		this.tree.remove(c.getX(), c.getY(), spot);
+	}
+
+	/**
+	 * Set the number of available vehicles of an indexed spot, no effect otherwise
+	 * @param spot
+	 * @param vehicles
+	 */
+	public void update(CarsharingStationMobsim spot, int vehicles) {
+		this.tree.update(spot, CarsharingStations.VEHICLE_AVAILABILITY, vehicles);
+	}
+
+	/**
+	 *
+	 * @param c
+	 * @param k
+	 * @param distance
+	 * @param nbrOfVeh
+	 * @return the k nearest spots within distance with at least nbrOfVeh available vehicles, closest first
+	 */
+	public List<CarsharingStationMobsim> nearest(Coord c, int k, double distance, final int nbrOfVeh) {
+		// the index is updated once per time step, spots emptied since are passed over
+		KdTree.Filter<CarsharingStationMobsim> filter = (nbrOfVeh <= 0) ? null : new KdTree.Filter<CarsharingStationMobsim>() {
+			@Override
+			public boolean accept(CarsharingStationMobsim spot) {
+				return m.booking().vehicleAvailability(spot) >= nbrOfVeh;
+			}
+		};
+		return this.tree.nearest(c.getX(), c.getY(), k, distance, filter, CarsharingStations.VEHICLE_AVAILABILITY, nbrOfVeh);
+	}
+
+	public synchronized int size() {
+		return this.parked.size();
+	}
+
+	/**
+	 * Empty the spots, which are kept for the next offers, and the tree of parked spots
+	 * @param iteration
+	 */
+	public synchronized void reset(int iteration) {
+		for(CarsharingStationMobsim spot : this.spots.values()) {
+			spot.reset(iteration);
+		}
+		this.parked.clear();
+		this.tree.clear();
+	}
+
+	public synchronized void clear() {
+		this.spots.clear();
+		this.parked.clear();
+		this.tree.clear();
+	}
+
+}
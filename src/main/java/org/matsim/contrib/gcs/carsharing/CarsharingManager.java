@@ -1,5 +1,6 @@
 package org.matsim.contrib.gcs.carsharing;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Set;
 
@@ -38,6 +39,11 @@ import org.matsim.contrib.gcs.operation.model.CarsharingPowerDistributionModel;
 import org.matsim.contrib.gcs.operation.model.CarsharingPowerSourceModel;
 import org.matsim.contrib.gcs.operation.model.CarsharingRelocationModel;
 import org.matsim.contrib.gcs.operation.model.CarsharingUserChoiceModel;
+import org.matsim.contrib.gcs.router.CarsharingNearestStationCache;
+import org.matsim.contrib.gcs.router.CarsharingStationCatchments;
+import org.matsim.contrib.gcs.router.CarsharingFastestPaths;
+import org.matsim.contrib.gcs.router.CarsharingRouteCache;
+import org.matsim.contrib.gcs.router.CarsharingTravelTimeMatrix;
 import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.controler.Controler;
 import org.matsim.core.controler.MatsimServices;
@@ -77,6 +83,14 @@ public class CarsharingManager {
 	private final CarsharingOperators operators;
 	private final CarsharingScenario carsharing;
 	private final CarsharingDataCollector dataCollector;
+	private final CarsharingNearestStationCache nearestStations;
+	private final CarsharingFloatingSpots floating;
+	private final CarsharingStationCatchments catchments;
+	private final CarsharingTravelTimeMatrix travelTimes;
+	private CarsharingFastestPaths fastestPaths;
+	private final CarsharingRouteCache routeCache;
+	private final ThreadLocal<RouterSlot> routers;
+	private volatile int routerIteration;
 	//private final Controler controller;
 	private MatsimServices services;
 	private MobsimDataProvider mobsimData;
@@ -90,16 +104,38 @@ public class CarsharingManager {
 	public CarsharingManager(CarsharingScenario carsharing, Controler controller) {
 		this.carsharing = carsharing;
 		//this.controller = controller;
-		this.stations = CarsharingStationFactory.stations(this.carsharing.getCarNetwork());
+		this.stations = CarsharingStationFactory.stations(this.carsharing.getCarNetwork(), this.carsharing.getConfig());
 		this.vehicles = CarsharingVehicleFactory.vehicles();
 		this.customers = CarsharingCustomerFactory.customers();
-		this.operators = CarsharingOperatorFactory.operators(this.carsharing.getCarNetwork());
+		this.operators = CarsharingOperatorFactory.operators(this.carsharing.getCarNetwork(), this.carsharing.getConfig());
 		this.dataCollector = new CarsharingDataCollector();
+		this.nearestStations = new CarsharingNearestStationCache(this);
+		this.floating = new CarsharingFloatingSpots(this);
+		this.catchments = new CarsharingStationCatchments(this);
+		this.travelTimes = new CarsharingTravelTimeMatrix(this);
+		this.routeCache = new CarsharingRouteCache(this);
+		this.routers = new ThreadLocal<RouterSlot>() {
+			@Override
+			protected RouterSlot initialValue() {
+				return new RouterSlot();
+			}
+		};
+		this.routerIteration = 0;
 		stop_deployment_at_iteration = 0;
 	}
 	
 	public EventsManager events() { return this.services.getEvents(); }
- 	public TripRouter router() { return tripRouterProvider.get(); }
+	/**
+	 * @return the trip router of the calling thread, built once per thread and iteration instead of at every call
+	 */
+	public TripRouter router() {
+		RouterSlot slot = this.routers.get();
+		if(slot.router == null || slot.iteration != this.routerIteration) {
+			slot.router = tripRouterProvider.get();
+			slot.iteration = this.routerIteration;
+		}
+		return slot.router;
+	}
 	public TravelTimeCollector ttc() { return (TravelTimeCollector)this.tt; }
 	public CarsharingRelocationModel relocation() { return this.relocation; }
 	public Network getCarNetwork() { return this.carsharing.getCarNetwork(); }
@@ -111,18 +147,43 @@ public class CarsharingManager {
 	public CarsharingOperators getOperators() {	return this.operators; }
 	public CarsharingBookingManager booking() { return this.booking; }
 	public CarsharingDataCollector dataCollector() { return this.dataCollector; }
+	public CarsharingNearestStationCache nearestStations() { return this.nearestStations; }
+	public CarsharingFloatingSpots floating() { return this.floating; }
+	public CarsharingStationCatchments catchments() { return this.catchments; }
+	public CarsharingTravelTimeMatrix travelTimes() { return this.travelTimes; }
+	public CarsharingRouteCache routeCache() { return this.routeCache; }
+	public synchronized CarsharingFastestPaths fastestPaths() {
+		if(this.fastestPaths == null) this.fastestPaths = new CarsharingFastestPaths(this.getCarNetwork());
+		return this.fastestPaths;
+	}
 	public CarsharingConfigGroup getConfig() { return this.carsharing.getConfig(); }
 	public CarsharingPreprocessedData ppData() { return this.data; }
 	public MobsimDataProvider mobsimData() { return this.mobsimData; }
 	public Provider<CarsharingOperatorChoiceModel> opChoiceFactory() { return this.op_choice_factory; }
 
 	public void reset(int iteration) {
+		this.routerIteration = iteration;
 		if(this.relocation != null) this.relocation.reset(iteration);
 		if(this.booking != null) this.booking.reset(iteration);
 		if(this.dataCollector != null) this.dataCollector.reset(iteration);
 		for(CarsharingOperatorMobsim operator: this.operators) { operator.reset(iteration);	}
 		for(CarsharingCustomerMobsim customer: this.customers) { customer.reset(iteration);	}
 		for(CarsharingVehicleMobsim vehicle: this.vehicles) { vehicle.reset(iteration);	}
+		if(this.getConfig().getLandmarks() > 0) {
+			this.fastestPaths().prepareLandmarks(
+					this.getConfig().getLandmarks(), 
+					this.ttc(), 
+					this.getConfig().getTravelTimeMatrixBin(), 
+					CarsharingTravelTimeMatrix.HORIZON);
+		}
+		if(this.getConfig().isTravelTimeMatrix()) {
+			this.travelTimes.build(
+					this.fastestPaths(), 
+					this.ttc(), 
+					0, 
+					this.carsharing.getScenario().getConfig().global().getNumberOfThreads());
+		}
+		this.floating.reset(iteration);
 		for(CarsharingStationMobsim station: this.stations) { 
 			station.reset(iteration);
 			if(station.parking().getFleetSize() > 0)
@@ -131,6 +192,10 @@ public class CarsharingManager {
 		}		
 	}
 	
+	public void shutdown() {
+		if(this.booking != null) this.booking.shutdown();
+	}
+	
 	public void finalizeAndwriteCurrentIterationLogs(int iteration) {
 		for(CarsharingVehicleMobsim vtemp: this.vehicles) {
 			if(vtemp.status().getTrip() != null) {
@@ -151,19 +216,26 @@ public class CarsharingManager {
 		this.relocation = relocation_factory.get();
 		// data collector
 		this.dataCollector.addAllModule(dataProviders);
+		if(this.getConfig().getRouteCacheSize() > 0) this.dataCollector.addModule(this.routeCache);
 		// booking
 		this.booking = new CarsharingBookingManager(this, booking_factory.get());
 		// stations
 		this.stations.clear();
+		ArrayList<CarsharingStationMobsim> stationsMobsim = new ArrayList<CarsharingStationMobsim>(this.carsharing.getStations().size());
 		for(CarsharingStation station: this.carsharing.getStations().values()) {
-			CarsharingStationMobsim stationMobsim = CarsharingStationFactory.
-					stationMobsimBuilder(station).
-					setParkingModel(parking_model_factory.get()).
-					setPowerController(new CarsharingStationPowerController(power_factory.get(), power_distribution_factory.get())).
-					build(this.carsharing.getScenario());
-			this.stations.add(stationMobsim);
+			stationsMobsim.add(this.buildStationMobsim(station));
+		}
+		this.stations.addAll(stationsMobsim);
+		for(CarsharingStationMobsim stationMobsim: stationsMobsim) {
 			if(this.booking != null) this.booking.track(stationMobsim);
 		}
+		this.nearestStations.build(
+				this.carsharing.getScenario().getPopulation(), 
+				this.carsharing.getScenario().getConfig().global().getNumberOfThreads());
+		this.floating.clear();
+		if(this.getConfig().isWalkCatchments()) {
+			this.catchments.build(this.carsharing.getScenario().getNetwork());
+		}
 		// vehicles
 		this.vehicles.clear();
 		for(CarsharingStationMobsim stationMobsim: this.getStations()) {
@@ -189,11 +261,25 @@ public class CarsharingManager {
 		}
 	}	
 	
+	public CarsharingStationMobsim buildStationMobsim(CarsharingStation station) {
+		return CarsharingStationFactory.
+				stationMobsimBuilder(station).
+				setParkingModel(parking_model_factory.get()).
+				setPowerController(new CarsharingStationPowerController(power_factory.get(), power_distribution_factory.get())).
+				build(this.carsharing.getScenario());
+	}
+	
 	public void stop_deployment_at_iteration(int depiter) {
 		this.stop_deployment_at_iteration = depiter;
 	}
 	
 	
-	
+	/**
+	 * Trip router of a thread, with the iteration it was built for
+	 */
+	private static final class RouterSlot {
+		TripRouter router = null;
+		int iteration = -1;
+	}
 
 }
@@ -1,30 +1,33 @@
 package org.matsim.contrib.gcs.carsharing;
 
+import java.util.AbstractSet;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.matsim.api.core.v01.Id;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingBookingLedger;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingBookingRecord;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingBookingStation;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingOperatorMobsim;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingRelocationTask;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingStationMobsim;
-import org.matsim.contrib.gcs.carsharing.impl.CarsharingStationFactory;
 import org.matsim.facilities.ActivityFacility;
 
 public class CarsharingPreprocessedData {
 	
 	class CarsharingPreprocessedIteration {
-		HashSet<CarsharingBookingRecord> bookingSuccess;
-		HashSet<CarsharingBookingRecord> bookingFailure;
+		final CarsharingBookingLedger bookingSuccess;
+		final CarsharingBookingLedger bookingFailure;
 		final ConcurrentHashMap<Id<ActivityFacility>, CarsharingBookingStation> stationsWrapperMap; 
 		final ConcurrentHashMap<CarsharingOperatorMobsim, ArrayList<CarsharingRelocationTask>> relocationWrapperMap;
 		public CarsharingPreprocessedIteration() {
 			this.stationsWrapperMap = new ConcurrentHashMap<Id<ActivityFacility>, CarsharingBookingStation>();
 			this.relocationWrapperMap = new ConcurrentHashMap<CarsharingOperatorMobsim, ArrayList<CarsharingRelocationTask>>();
-			this.bookingSuccess = new HashSet<CarsharingBookingRecord>();
-			this.bookingFailure = new HashSet<CarsharingBookingRecord>();
+			this.bookingSuccess = new CarsharingBookingLedger();
+			this.bookingFailure = new CarsharingBookingLedger();
 		}
 	}
 	
@@ -34,6 +37,11 @@ public class CarsharingPreprocessedData {
 	
 
 	
+	/**
+	 * 
+	 * @param iteration
+	 * @return read-only snapshots of the booking state of the stations at the end of the iteration, see {@link CarsharingBookingStation#snapshot()}
+	 */
 	public ConcurrentHashMap<Id<ActivityFacility>, CarsharingBookingStation> stationMap(int iteration) {
 		return data.get(new Integer(iteration)).stationsWrapperMap;
 	}
@@ -44,16 +52,32 @@ public class CarsharingPreprocessedData {
 	
 	
 	
-	public HashSet<CarsharingBookingRecord> bookingSuccessSet() {
+	public CarsharingBookingLedger bookingSuccessLedger() {
 		if(lastIteration >= 0)
 			return data.get(new Integer(lastIteration)).bookingSuccess; 
-		return new HashSet<CarsharingBookingRecord>();
+		return new CarsharingBookingLedger();
 	}
 	
-	public HashSet<CarsharingBookingRecord> bookingFailureSet() {
+	public CarsharingBookingLedger bookingFailureLedger() {
 		if(lastIteration >= 0)
 			return data.get(new Integer(lastIteration)).bookingFailure; 
-		return new HashSet<CarsharingBookingRecord>();
+		return new CarsharingBookingLedger();
+	}
+	
+	/**
+	 * @deprecated the records are kept in {@link #bookingSuccessLedger()}, this is a view which builds them at each access
+	 */
+	@Deprecated
+	public Set<CarsharingBookingRecord> bookingSuccessSet() {
+		return view(bookingSuccessLedger());
+	}
+	
+	/**
+	 * @deprecated the records are kept in {@link #bookingFailureLedger()}, this is a view which builds them at each access
+	 */
+	@Deprecated
+	public Set<CarsharingBookingRecord> bookingFailureSet() {
+		return view(bookingFailureLedger());
 	}
 	
 	public ConcurrentHashMap<Id<ActivityFacility>, CarsharingBookingStation> stationMap() {
@@ -62,6 +86,21 @@ public class CarsharingPreprocessedData {
 		return new ConcurrentHashMap<Id<ActivityFacility>, CarsharingBookingStation>();
 	}
 	
+	/**
+	 * 
+	 * @param station
+	 * @return views of the bookings of the last iteration from or to the station, successful ones first
+	 */
+	public List<CarsharingBookingRecord> bookings(Id<ActivityFacility> station) {
+		List<CarsharingBookingRecord> bookings = new ArrayList<CarsharingBookingRecord>();
+		for(CarsharingBookingLedger ledger : new CarsharingBookingLedger[] { bookingSuccessLedger(), bookingFailureLedger() }) {
+			for(int i : ledger.indexes(station)) {
+				bookings.add(ledger.get(i));
+			}
+		}
+		return bookings;
+	}
+	
 	public ConcurrentHashMap<CarsharingOperatorMobsim, ArrayList<CarsharingRelocationTask>> relocationMap() {
 		if(lastIteration >= 0)
 			return relocationMap(lastIteration);
@@ -79,7 +118,7 @@ public class CarsharingPreprocessedData {
 		for(CarsharingStationMobsim station : manager.getStations()) {
 			it.stationsWrapperMap.put(
 					station.facility().getId(), 
-					new CarsharingBookingStation(manager.booking().track(station)));			
+					manager.booking().snapshot(station));			
 		}
 		for(CarsharingBookingRecord dm : manager.booking().records()) {
 			if(dm.bookingFailed() || dm.trip() == null || dm.park() == null) {
@@ -98,4 +137,28 @@ public class CarsharingPreprocessedData {
 		return this.data.isEmpty();
 	}
 	
+	private static Set<CarsharingBookingRecord> view(final CarsharingBookingLedger ledger) {
+		return new AbstractSet<CarsharingBookingRecord>() {
+			@Override
+			public Iterator<CarsharingBookingRecord> iterator() {
+				return new Iterator<CarsharingBookingRecord>() {
+					final int size = ledger.size();
+					int i = 0;
+					@Override
+					public boolean hasNext() {
+						return this.i < this.size;
+					}
+					@Override
+					public CarsharingBookingRecord next() {
+						return ledger.get(this.i++);
+					}
+				};
+			}
+			@Override
+			public int size() {
+				return ledger.size();
+			}
+		};
+	}
+	
 }
@@ -97,6 +97,7 @@ public class CarsharingScenario {
 		csConf.setChargingLogFile(rootdir + "/log/charge.log");
 		csConf.setBookingLogFile(rootdir + "/log/booking.log");
 		csConf.setRelocationLogFile(rootdir + "/log/relocation.log");
+		csConf.setRouteCacheLogFile(rootdir + "/log/routecache.log");
 		csConf.setLogDir(rootdir+"/log");
 		
 		
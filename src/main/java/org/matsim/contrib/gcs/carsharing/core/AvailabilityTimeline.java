@@ -0,0 +1,223 @@
+package org.matsim.contrib.gcs.carsharing.core;
+
+import java.util.Arrays;
+
+/**
+ * Availability changes of a station, aggregated per time slot of one second in a sparse segment tree.
+ * Each node keeps the net change and the minimum running change of its time window, so that the
+ * balance at a given time and the minimum balance over a time window are answered in O(log n).
+ *
+ * The events of a slot are read from the {@link BookingTimeline} in their insertion order,
+ * {@link #update(double)} has to be called for a time after an event at that time was added or removed.
+ * Booking times are integer seconds, any fraction of a second is ignored.
+ *
+ * The tree is persistent: {@link #version(BookingTimeline)} takes in O(1) a read-only version of it, the nodes it shares
+ * are copied on the next write (O(log n) per update) and the other nodes are updated in place.
+ *
+ * @param <T>
+ */
+public class AvailabilityTimeline<T> {
+
+	/**
+	 * Gives the change of availability (negative or positive) brought by an event
+	 */
+	public interface DeltaFunction<T> {
+		int getDelta(T t);
+	}
+
+	private static final int INITIAL_DEPTH = 17; // 2^17 seconds, more than 36 hours
+	private static final int MAX_SLOT = (1 << 30) - 1;
+
+	private final BookingTimeline<T> events;
+	private final DeltaFunction<? super T> delta;
+
+	// node 0 is the empty node, its sum and minimum are 0
+	private int[] left;
+	private int[] right;
+	private int[] sum;
+	private int[] min;
+	private int nodes;
+	private int root;
+	private int depth;
+	private int shared; // nodes below are part of a version, they are not changed anymore
+	private final boolean readonly;
+
+	public AvailabilityTimeline(BookingTimeline<T> events, DeltaFunction<? super T> delta) {
+		this.events = events;
+		this.delta = delta;
+		this.left = new int[64];
+		this.right = new int[64];
+		this.sum = new int[64];
+		this.min = new int[64];
+		this.nodes = 1;
+		this.root = 0;
+		this.depth = INITIAL_DEPTH;
+		this.shared = 0;
+		this.readonly = false;
+	}
+
+	private AvailabilityTimeline(AvailabilityTimeline<T> a, BookingTimeline<T> events) {
+		this.events = events;
+		this.delta = a.delta;
+		this.left = a.left;
+		this.right = a.right;
+		this.sum = a.sum;
+		this.min = a.min;
+		this.nodes = a.nodes;
+		this.root = a.root;
+		this.depth = a.depth;
+		this.shared = a.nodes;
+		this.readonly = true;
+	}
+
+	/**
+	 * @param events version of the events taken together with this one, see {@link BookingTimeline#version()}
+	 * @return read-only version of the tree as it is now, sharing its nodes
+	 */
+	public AvailabilityTimeline<T> version(BookingTimeline<T> events) {
+		synchronized(this.events) {
+			this.shared = this.nodes;
+			return new AvailabilityTimeline<T>(this, events);
+		}
+	}
+
+	/**
+	 * Recompute the slot of the given time from the events currently in the timeline
+	 * @param time
+	 */
+	public void update(double time) {
+		if(this.readonly) throw new RuntimeException("a version of the availability timeline is read-only");
+		synchronized(this.events) {
+			int slot = slot(time);
+			while(slot >= (1 << this.depth)) { // grow on the right
+				int r = newNode();
+				this.left[r] = this.root;
+				this.sum[r] = this.sum[this.root];
+				this.min[r] = this.min[this.root];
+				this.root = r;
+				this.depth++;
+			}
+			int run = 0;
+			int m = 0;
+			double from = (slot == 0) ? Double.NEGATIVE_INFINITY : slot;
+			for(T t : this.events.subList(from, Math.nextDown(slot + 1.0))) {
+				run += this.delta.getDelta(t);
+				m = (run < m) ? run : m;
+			}
+			this.root = update(this.root, 0, (1 << this.depth) - 1, slot, run, m);
+		}
+	}
+
+	/**
+	 *
+	 * @param lb included
+	 * @param ub included
+	 * @return net availability change over the time window
+	 */
+	public int sum(double lb, double ub) {
+		int[] acc = query(lb, ub);
+		return acc[0];
+	}
+
+	/**
+	 *
+	 * @param lb included
+	 * @param ub included
+	 * @return lowest running availability change over the time window, 0 if it never goes below its initial value
+	 */
+	public int minimum(double lb, double ub) {
+		int[] acc = query(lb, ub);
+		return acc[1];
+	}
+
+	public void clear() {
+		if(this.readonly) throw new RuntimeException("a version of the availability timeline is read-only");
+		synchronized(this.events) {
+			// new arrays, the versions keep the old ones
+			this.left = new int[64];
+			this.right = new int[64];
+			this.sum = new int[64];
+			this.min = new int[64];
+			this.shared = 0;
+			this.nodes = 1;
+			this.root = 0;
+			this.depth = INITIAL_DEPTH;
+		}
+	}
+
+	// *********
+
+	private int[] query(double lb, double ub) {
+		if(lb > ub) throw new RuntimeException("lowerborn > upperbound");
+		int[] acc = new int[] { 0, 0 }; // sum, min
+		synchronized(this.events) {
+			int lo = Math.max(0, (int) Math.ceil(lb));
+			int hi = Math.min((1 << this.depth) - 1, (int) Math.floor(ub));
+			if(lo <= hi) {
+				query(this.root, 0, (1 << this.depth) - 1, lo, hi, acc);
+			}
+		}
+		return acc;
+	}
+
+	private void query(int node, int from, int to, int lo, int hi, int[] acc) {
+		if(node == 0 || hi < from || to < lo) return;
+		if(lo <= from && to <= hi) {
+			int m = acc[0] + this.min[node];
+			acc[1] = (m < acc[1]) ? m : acc[1];
+			acc[0] += this.sum[node];
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		query(this.left[node], from, mid, lo, hi, acc);
+		query(this.right[node], mid + 1, to, lo, hi, acc);
+	}
+
+	private int update(int node, int from, int to, int slot, int s, int m) {
+		if(node == 0) {
+			node = newNode();
+		} else if(node < this.shared) { // copy on write
+			int c = newNode();
+			this.left[c] = this.left[node];
+			this.right[c] = this.right[node];
+			this.sum[c] = this.sum[node];
+			this.min[c] = this.min[node];
+			node = c;
+		}
+		if(from == to) {
+			this.sum[node] = s;
+			this.min[node] = m;
+			return node;
+		}
+		int mid = (from + to) >>> 1;
+		if(slot <= mid) {
+			int l = update(this.left[node], from, mid, slot, s, m);
+			this.left[node] = l;
+		} else {
+			int r = update(this.right[node], mid + 1, to, slot, s, m);
+			this.right[node] = r;
+		}
+		int l = this.left[node];
+		int r = this.right[node];
+		this.sum[node] = this.sum[l] + this.sum[r];
+		int mr = this.sum[l] + this.min[r];
+		this.min[node] = (this.min[l] < mr) ? this.min[l] : mr;
+		return node;
+	}
+
+	private int newNode() {
+		if(this.nodes == this.sum.length) {
+			int n = this.nodes * 2;
+			this.left = Arrays.copyOf(this.left, n);
+			this.right = Arrays.copyOf(this.right, n);
+			this.sum = Arrays.copyOf(this.sum, n);
+			this.min = Arrays.copyOf(this.min, n);
+		}
+		return this.nodes++;
+	}
+
+	private static int slot(double time) {
+		return (time < 0) ? 0 : (int) Math.min(time, MAX_SLOT);
+	}
+
+}
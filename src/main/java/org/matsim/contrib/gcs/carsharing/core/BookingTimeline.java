@@ -0,0 +1,205 @@
+package org.matsim.contrib.gcs.carsharing.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Time ordered index of bookings. Elements are kept in a balanced tree keyed by
+ * their availability time, elements sharing the same time are kept in insertion order
+ * (the sorted list used before placed them wherever its binary search landed among the equal times).
+ * Insertion, removal and range lookups are O(log n), range queries return views and not copies.
+ *
+ * Mutations are synchronized on the timeline, a view must be iterated inside a
+ * <code>synchronized(timeline)</code> block if the timeline can be modified concurrently.
+ *
+ * {@link #version()} takes in O(1) a read-only version which shares the tree: it sees the entries added before it,
+ * by their insertion sequence. Once a version was taken, entries cannot be removed anymore.
+ *
+ * @param <T>
+ */
+public class BookingTimeline<T> implements Iterable<T> {
+
+	/**
+	 * Gives the time at which an element is indexed. It must not change while the element is in the timeline.
+	 */
+	public interface TimeFunction<T> {
+		double getTime(T t);
+	}
+
+	private static final class Key implements Comparable<Key> {
+		final double time;
+		final long seq;
+		Key(double time, long seq) {
+			this.time = time;
+			this.seq = seq;
+		}
+		@Override
+		public int compareTo(Key o) {
+			int c = Double.compare(this.time, o.time);
+			return (c != 0) ? c : Long.compare(this.seq, o.seq);
+		}
+	}
+
+	private final TreeMap<Key, T> tree;
+	private final Map<T, Key> keys;
+	private final TimeFunction<? super T> time;
+	private final BookingTimeline<T> live; // this for the live timeline
+	private final long limit; // entries of a version have a lower sequence
+	private final int size; // of a version
+	private long seq;
+	private boolean versioned;
+
+	public BookingTimeline(TimeFunction<? super T> time) {
+		this.tree = new TreeMap<Key, T>();
+		this.keys = new IdentityHashMap<T, Key>();
+		this.time = time;
+		this.live = this;
+		this.limit = Long.MAX_VALUE;
+		this.size = -1;
+		this.seq = 0;
+		this.versioned = false;
+	}
+
+	private BookingTimeline(BookingTimeline<T> live) {
+		this.tree = live.tree;
+		this.keys = live.keys;
+		this.time = live.time;
+		this.live = live;
+		this.limit = live.seq;
+		this.size = live.tree.size();
+		this.seq = live.seq;
+		this.versioned = true;
+	}
+
+	/**
+	 * @return read-only version of the timeline as it is now, sharing its entries
+	 */
+	public BookingTimeline<T> version() {
+		synchronized(this.live) {
+			this.live.versioned = true;
+			return new BookingTimeline<T>(this.live);
+		}
+	}
+
+	public boolean isVersion() {
+		return this.live != this;
+	}
+
+	/**
+	 * Add a new entry to the timeline, after all the entries with the same time.
+	 *
+	 * @param t
+	 * @return <code>false</code> if the entry is already in the timeline
+	 */
+	public synchronized boolean add(T t) {
+		checkLive();
+		if(this.keys.containsKey(t)) return false;
+		Key k = new Key(this.time.getTime(t), this.seq++);
+		this.tree.put(k, t);
+		this.keys.put(t, k);
+		return true;
+	}
+
+	/**
+	 *
+	 * @param t
+	 * @return <code>false</code> if the entry is not in the timeline
+	 */
+	public synchronized boolean remove(T t) {
+		checkLive();
+		if(this.versioned) throw new RuntimeException("entries cannot be removed from a versioned timeline");
+		Key k = this.keys.remove(t);
+		if(k == null) return false;
+		this.tree.remove(k);
+		return true;
+	}
+
+	public boolean contains(T t) {
+		synchronized(this.live) {
+			Key k = this.keys.get(t);
+			return k != null && k.seq < this.limit;
+		}
+	}
+
+	/**
+	 *
+	 * @param lowerborn included
+	 * @param upperbound included
+	 * @return a view of the entries within the time window, in time order, a copy for a version
+	 */
+	public Collection<T> subList(double lowerborn, double upperbound) {
+		if(lowerborn > upperbound) throw new RuntimeException("lowerborn > upperbound");
+		synchronized(this.live) {
+			Map<Key, T> window = this.tree.subMap(
+					new Key(lowerborn, Long.MIN_VALUE), true,
+					new Key(upperbound, Long.MAX_VALUE), true);
+			return this.isVersion() ? this.copy(window) : window.values();
+		}
+	}
+
+	/**
+	 * Last entry of {@link #subList(double, double)}, without the view.
+	 *
+	 * @param lowerborn included
+	 * @param upperbound included
+	 * @return the last entry within the time window, <code>null</code> if none
+	 */
+	public T last(double lowerborn, double upperbound) {
+		if(lowerborn > upperbound) throw new RuntimeException("lowerborn > upperbound");
+		synchronized(this.live) {
+			Map.Entry<Key, T> e = this.tree.floorEntry(new Key(upperbound, Long.MAX_VALUE));
+			while(e != null && e.getKey().seq >= this.limit) { // added after the version
+				e = this.tree.lowerEntry(e.getKey());
+			}
+			return (e == null || e.getKey().time < lowerborn) ? null : e.getValue();
+		}
+	}
+
+	public int size() {
+		synchronized(this.live) {
+			return this.isVersion() ? this.size : this.tree.size();
+		}
+	}
+
+	public boolean isEmpty() {
+		return this.size() == 0;
+	}
+
+	public synchronized void clear() {
+		checkLive();
+		if(this.versioned) throw new RuntimeException("entries cannot be removed from a versioned timeline");
+		this.tree.clear();
+		this.keys.clear();
+	}
+
+	/**
+	 * The iterator of a version runs over a copy
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		if(this.isVersion()) {
+			synchronized(this.live) {
+				return this.copy(this.tree).iterator();
+			}
+		}
+		return this.tree.values().iterator();
+	}
+
+	private Collection<T> copy(Map<Key, T> window) {
+		ArrayList<T> entries = new ArrayList<T>();
+		for(Map.Entry<Key, T> e : window.entrySet()) {
+			if(e.getKey().seq < this.limit) entries.add(e.getValue());
+		}
+		return Collections.unmodifiableList(entries);
+	}
+
+	private void checkLive() {
+		if(this.isVersion()) throw new RuntimeException("a version of the timeline is read-only");
+	}
+
+}
@@ -0,0 +1,224 @@
+package org.matsim.contrib.gcs.carsharing.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.facilities.ActivityFacility;
+
+/**
+ * Compact store of booking records, one primitive column per attribute instead of one object per booking.
+ * Stations and agents are kept once in a table and referenced by their index, the related offer, the demand,
+ * the vehicle and the trip/park labels are not kept.
+ *
+ * Records are appended with {@link #add(CarsharingBookingRecord)} and read back column by column,
+ * {@link #get(int)} builds an object view on demand. The bookings of a station are indexed by station id, see {@link #indexes(Id)}.
+ */
+public class CarsharingBookingLedger {
+
+	private static final int VEHICLE_OFFER_SET = 1;
+	private static final int VEHICLE_OFFER = 2;
+	private static final int PARKING_OFFER_SET = 4;
+	private static final int PARKING_OFFER = 8;
+	private static final int HAS_TRIP = 16;
+	private static final int HAS_PARK = 32;
+
+	private final ArrayList<CarsharingStationMobsim> stations;
+	private final Map<CarsharingStationMobsim, Integer> stationIndex;
+	private final ArrayList<CarsharingAgent> agents;
+	private final Map<CarsharingAgent, Integer> agentIndex;
+	private final Map<Id<ActivityFacility>, Rows> stationRows;
+
+	private int[] bookingTime;
+	private int[] agent;
+	private int[] origin;
+	private int[] destination;
+	private int[] departureTime;
+	private int[] arrivalTime;
+	private int[] pickupTime;
+	private int[] dropoffTime;
+	private int[] nbrOfVeh;
+	private byte[] flags;
+	private int size;
+
+	public CarsharingBookingLedger() {
+		this.stations = new ArrayList<CarsharingStationMobsim>();
+		this.stationIndex = new IdentityHashMap<CarsharingStationMobsim, Integer>();
+		this.agents = new ArrayList<CarsharingAgent>();
+		this.agentIndex = new IdentityHashMap<CarsharingAgent, Integer>();
+		this.stationRows = new HashMap<Id<ActivityFacility>, Rows>();
+		this.clear();
+	}
+
+	/**
+	 * Growable list of booking indexes
+	 */
+	private static final class Rows {
+		int[] rows = new int[4];
+		int size = 0;
+		void add(int i) {
+			if(this.size == this.rows.length) this.rows = Arrays.copyOf(this.rows, this.size * 2);
+			this.rows[this.size++] = i;
+		}
+	}
+
+	/**
+	 *
+	 * @param r
+	 * @return index of the booking in the ledger
+	 */
+	public synchronized int add(CarsharingBookingRecord r) {
+		if(this.size == this.bookingTime.length) {
+			grow(this.size * 2);
+		}
+		int i = this.size++;
+		this.bookingTime[i] = r.getBookingTime();
+		this.agent[i] = index(this.agents, this.agentIndex, r.getAgent());
+		this.origin[i] = index(this.stations, this.stationIndex, r.getOriginStation());
+		this.destination[i] = index(this.stations, this.stationIndex, r.getDestinationStation());
+		this.departureTime[i] = r.getDepartureTime();
+		this.arrivalTime[i] = r.getArrivalTime();
+		this.pickupTime[i] = r.getPickupTime();
+		this.dropoffTime[i] = r.getDropoffTime();
+		this.nbrOfVeh[i] = r.getNbrOfVeh();
+		int f = 0;
+		if(r.vehicleOfferValue() != null) f |= VEHICLE_OFFER_SET | (r.vehicleOfferValue() ? VEHICLE_OFFER : 0);
+		if(r.parkingOfferValue() != null) f |= PARKING_OFFER_SET | (r.parkingOfferValue() ? PARKING_OFFER : 0);
+		if(r.trip() != null) f |= HAS_TRIP;
+		if(r.park() != null) f |= HAS_PARK;
+		this.flags[i] = (byte) f;
+		CarsharingStationMobsim o = r.getOriginStation();
+		CarsharingStationMobsim d = r.getDestinationStation();
+		if(o != null) row(o.getId(), i);
+		if(d != null && (o == null || !d.getId().equals(o.getId()))) row(d.getId(), i);
+		return i;
+	}
+
+	/**
+	 *
+	 * @param station
+	 * @return indexes of the bookings from or to the station, in the order they were added
+	 */
+	public synchronized int[] indexes(Id<ActivityFacility> station) {
+		Rows rows = this.stationRows.get(station);
+		return (rows == null) ? new int[0] : Arrays.copyOf(rows.rows, rows.size);
+	}
+
+	public synchronized int size() {
+		return this.size;
+	}
+
+	public boolean isEmpty() {
+		return this.size() == 0;
+	}
+
+	public synchronized void clear() {
+		this.stations.clear();
+		this.stationIndex.clear();
+		this.agents.clear();
+		this.agentIndex.clear();
+		this.stationRows.clear();
+		this.bookingTime = null;
+		this.agent = null;
+		this.origin = null;
+		this.destination = null;
+		this.departureTime = null;
+		this.arrivalTime = null;
+		this.pickupTime = null;
+		this.dropoffTime = null;
+		this.nbrOfVeh = null;
+		this.flags = null;
+		this.size = 0;
+		grow(16);
+	}
+
+	// *********
+
+	public synchronized int getBookingTime(int i) { check(i); return this.bookingTime[i]; }
+	public synchronized CarsharingAgent getAgent(int i) { check(i); return get(this.agents, this.agent[i]); }
+	public synchronized CarsharingStationMobsim getOriginStation(int i) { check(i); return get(this.stations, this.origin[i]); }
+	public synchronized CarsharingStationMobsim getDestinationStation(int i) { check(i); return get(this.stations, this.destination[i]); }
+	public synchronized int getDepartureTime(int i) { check(i); return this.departureTime[i]; }
+	public synchronized int getArrivalTime(int i) { check(i); return this.arrivalTime[i]; }
+	public synchronized int getPickupTime(int i) { check(i); return this.pickupTime[i]; }
+	public synchronized int getDropoffTime(int i) { check(i); return this.dropoffTime[i]; }
+	public synchronized int getNbrOfVeh(int i) { check(i); return this.nbrOfVeh[i]; }
+	public synchronized boolean vehicleOffer(int i) { check(i); return (this.flags[i] & VEHICLE_OFFER) != 0; }
+	public synchronized boolean parkingOffer(int i) { check(i); return (this.flags[i] & PARKING_OFFER) != 0; }
+	public synchronized boolean hasTrip(int i) { check(i); return (this.flags[i] & HAS_TRIP) != 0; }
+	public synchronized boolean hasPark(int i) { check(i); return (this.flags[i] & HAS_PARK) != 0; }
+	public boolean bookingFailed(int i) { return !vehicleOffer(i) || !parkingOffer(i); }
+
+	/**
+	 * Object view of a booking, without related offer, demand, vehicle and trip/park labels
+	 * @param i
+	 * @return
+	 */
+	public synchronized CarsharingBookingRecord get(int i) {
+		check(i);
+		int f = this.flags[i];
+		CarsharingBookingRecord b = CarsharingBookingRecord.constructBookingRec(
+				this.bookingTime[i], null,
+				((f & VEHICLE_OFFER_SET) == 0) ? null : (f & VEHICLE_OFFER) != 0,
+				get(this.stations, this.origin[i]), this.departureTime[i],
+				((f & PARKING_OFFER_SET) == 0) ? null : (f & PARKING_OFFER) != 0,
+				get(this.stations, this.destination[i]), this.arrivalTime[i]);
+		b.setAgent(get(this.agents, this.agent[i]));
+		b.id = ((b.person == null) ? "NA" : b.person.getId()) + "@" + b.bookingTime;
+		b.setNbrOfVeh(this.nbrOfVeh[i]);
+		b.pickuptime = this.pickupTime[i];
+		b.dropofftime = this.dropoffTime[i];
+		return b;
+	}
+
+	// *********
+
+	private void check(int i) {
+		if(i < 0 || i >= this.size) throw new RuntimeException("Booking " + i + " not in ledger of size " + this.size);
+	}
+
+	private void grow(int n) {
+		this.bookingTime = copy(this.bookingTime, n);
+		this.agent = copy(this.agent, n);
+		this.origin = copy(this.origin, n);
+		this.destination = copy(this.destination, n);
+		this.departureTime = copy(this.departureTime, n);
+		this.arrivalTime = copy(this.arrivalTime, n);
+		this.pickupTime = copy(this.pickupTime, n);
+		this.dropoffTime = copy(this.dropoffTime, n);
+		this.nbrOfVeh = copy(this.nbrOfVeh, n);
+		this.flags = (this.flags == null) ? new byte[n] : Arrays.copyOf(this.flags, n);
+	}
+
+	private static int[] copy(int[] a, int n) {
+		return (a == null) ? new int[n] : Arrays.copyOf(a, n);
+	}
+
+	private void row(Id<ActivityFacility> station, int i) {
+		Rows rows = this.stationRows.get(station);
+		if(rows == null) {
+			rows = new Rows();
+			this.stationRows.put(station, rows);
+		}
+		rows.add(i);
+	}
+
+	private static <T> int index(ArrayList<T> table, Map<T, Integer> index, T t) {
+		if(t == null) return -1;
+		Integer i = index.get(t);
+		if(i == null) {
+			i = table.size();
+			table.add(t);
+			index.put(t, i);
+		}
+		return i;
+	}
+
+	private static <T> T get(ArrayList<T> table, int i) {
+		return (i < 0) ? null : table.get(i);
+	}
+
+}
@@ -2,11 +2,27 @@ package org.matsim.contrib.gcs.carsharing.core;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.log4j.Logger;
-import org.matsim.api.core.v01.population.Leg;
+import org.matsim.contrib.gcs.carsharing.CarsharingFloatingSpots;
 import org.matsim.contrib.gcs.carsharing.CarsharingManager;
+import org.matsim.contrib.gcs.events.CarsharingBookingEvent;
 import org.matsim.contrib.gcs.operation.model.CarsharingOfferModel;
 import org.matsim.contrib.gcs.router.CarsharingNearestStationRouterModule;
 import org.matsim.contrib.gcs.router.CarsharingNearestStationRouterModule.CarsharingLocationInfo;
@@ -18,36 +34,142 @@ public class CarsharingBookingManager {
 	private static Logger logger = Logger.getLogger(CarsharingBookingManager.class);
 
 	private final CarsharingOfferModel offermodel;
-	private final ConcurrentHashMap<Leg, CarsharingBookingRecord> demandBookingMap;
+	private final CarsharingDemandArray<CarsharingBookingRecord> demandBookingMap;
 	private final ConcurrentHashMap<CarsharingStationMobsim, CarsharingBookingStation> stationBookingMap; 
 	final CarsharingManager m;
 	final CarsharingNearestStationRouterModule nearStationRouter;
+	private final CarsharingDemandArray<Future<ComputedOffers>> speculativeOfferMap;
+	private final PriorityQueue<ScheduledOffers> scheduledOffers;
+	private final TreeMap<Integer, List<CarsharingDemand>> scheduledBookings;
+	private final TimingWheel<Reservation> reservations;
+	private ExecutorService batchExecutor;
+	private final CarsharingBookingStation.AvailabilityListener availabilityIndex;
+	private final Set<CarsharingBookingStation> availabilityChanges;
+	private final ThreadLocal<Map<CarsharingStationMobsim, int[]>> availabilityView;
+	private volatile Map<CarsharingStationMobsim, int[]> availabilitySnapshot;
+	private volatile boolean availabilityDirty;
+	
+	/**
+	 * Offers computed on the worker pool, and the one the customer selected among them
+	 */
+	public static class ComputedOffers {
+		int time;
+		ArrayList<CarsharingOffer> offers;
+		CarsharingOffer selectedOffer;
+		public ArrayList<CarsharingOffer> getOffers() { return this.offers; }
+		public CarsharingOffer getSelectedOffer() { return this.selectedOffer; }
+	}
+	
+	private static class ScheduledOffers {
+		double start;
+		int time;
+		CarsharingDemand demand;
+	}
+	
+	private static class Reservation {
+		final CarsharingStationMobsim station;
+		final CarsharingBookingRecord record;
+		Reservation(CarsharingStationMobsim station, CarsharingBookingRecord record) {
+			this.station = station;
+			this.record = record;
+		}
+	}
 	
 	public CarsharingBookingManager(CarsharingManager manager, CarsharingOfferModel omodel) {
 		this.offermodel = omodel;
-		this.demandBookingMap = new ConcurrentHashMap<Leg, CarsharingBookingRecord>();
+		this.demandBookingMap = new CarsharingDemandArray<CarsharingBookingRecord>();
 		this.stationBookingMap = new ConcurrentHashMap<CarsharingStationMobsim, CarsharingBookingStation>();
+		this.speculativeOfferMap = new CarsharingDemandArray<Future<ComputedOffers>>();
+		this.scheduledOffers = new PriorityQueue<ScheduledOffers>(11, new Comparator<ScheduledOffers>() {
+			@Override
+			public int compare(ScheduledOffers o1, ScheduledOffers o2) {
+				return Double.compare(o1.start, o2.start);
+			}
+		});
+		this.scheduledBookings = new TreeMap<Integer, List<CarsharingDemand>>();
+		this.reservations = new TimingWheel<Reservation>();
 		this.m = manager;
 		this.nearStationRouter = new CarsharingNearestStationRouterModule(this.m.getScenario(), this.m, null);
+		this.availabilityView = new ThreadLocal<Map<CarsharingStationMobsim, int[]>>();
+		this.availabilityDirty = true;
+		this.availabilityChanges = ConcurrentHashMap.newKeySet();
+		this.availabilityIndex = new CarsharingBookingStation.AvailabilityListener() {
+			@Override
+			public void availabilityChanged(CarsharingBookingStation b) {
+				availabilityDirty = true;
+				availabilityChanges.add(b); // the indexes are updated at the next time step
+			}
+		};
+	}
+	
+	/**
+	 * Copy the availability of the stations which changed since the last call into the station and floating spot indexes.
+	 * Called once per time step, the searches of a time step prune by the availability of its start
+	 * and check the stations they keep against their live counters.
+	 */
+	public void updateAvailabilityIndex() {
+		KdTree<CarsharingStationMobsim> tree = this.m.getStations().kdtree();
+		Iterator<CarsharingBookingStation> it = this.availabilityChanges.iterator();
+		while(it.hasNext()) {
+			CarsharingBookingStation b = it.next();
+			it.remove(); // before reading, a later change is added again
+			if(b.getStation().getType().equals(CarsharingFloatingSpots.FLOATING)) {
+				this.m.floating().update(b.getStation(), b.vehicleAvailability());
+			} else {
+				tree.update(b.getStation(), CarsharingStations.VEHICLE_AVAILABILITY, b.vehicleAvailability());
+				tree.update(b.getStation(), CarsharingStations.PARKING_AVAILABILITY, b.parkingAvailability());
+			}
+		}
 	}
 	
 	public void reset(int iteration) {
 		this.demandBookingMap.clear();
 		this.stationBookingMap.clear();
+		synchronized(this.scheduledOffers) {
+			this.scheduledOffers.clear();
+		}
+		synchronized(this.scheduledBookings) {
+			this.scheduledBookings.clear();
+		}
+		for(Future<ComputedOffers> f : this.speculativeOfferMap.values()) {
+			f.cancel(true);
+		}
+		this.speculativeOfferMap.clear();
+		this.shutdown();
+		this.availabilitySnapshot = null;
+		this.availabilityDirty = true;
+		this.availabilityChanges.clear();
+		this.reservations.clear();
 	}
 
-	synchronized public CarsharingBookingRecord process(double now, CarsharingDemand demand, CarsharingOffer selectedOffer, ArrayList<CarsharingOffer> listOfOffers) {
+	/**
+	 * Book the selected offer, or record the failure if none. The vehicle(s) at the origin and the parking slot(s)
+	 * at the destination are reserved with lock-free counters, the vehicle reservation is rolled back if the parking fails.
+	 */
+	public CarsharingBookingRecord process(double now, CarsharingDemand demand, CarsharingOffer selectedOffer, ArrayList<CarsharingOffer> listOfOffers) {
 		
 		CarsharingBookingRecord br = null;
 		if(selectedOffer != null) {
 			br = CarsharingBookingRecord.constructAndGetBookingRec((int)now, selectedOffer);
-			CarsharingStationMobsim So = br.getOriginStation();
-			CarsharingStationMobsim Sd = br.getDestinationStation();
-			br.setVehicleOffer(this.stationBookingMap.get(So).add(br));
-			br.setParkingOffer(this.stationBookingMap.get(Sd).add(br));
-			if(br.bookingFailed()) {
-				this.stationBookingMap.get(So).cancel(br);
-				this.stationBookingMap.get(Sd).cancel(br);
+			CarsharingBookingStation Bo = this.track(br.getOriginStation());
+			CarsharingBookingStation Bd = this.track(br.getDestinationStation());
+			int nbrOfVeh = br.getNbrOfVeh();
+			boolean vo = Bo.reserveVehicle(nbrOfVeh);
+			boolean po;
+			if(vo) {
+				po = Bd.reserveParking(nbrOfVeh);
+				if(!po) Bo.releaseVehicle(nbrOfVeh); // roll back
+			} else {
+				po = Bd.parkingAvailability() >= nbrOfVeh;
+			}
+			br.setVehicleOffer(vo);
+			br.setParkingOffer(po);
+			Bo.register(br, vo && po);
+			Bd.register(br, vo && po);
+			int hold = this.m.getConfig().getReservationHoldTime();
+			if(vo && po && hold > 0) {
+				this.reservations.schedule(br.getPickupTime() + hold, new Reservation(br.getOriginStation(), br));
+				this.reservations.schedule(br.getDropoffTime() + hold, new Reservation(br.getDestinationStation(), br));
 			}
 		} else {
 			br = constructFailedRecord(now, listOfOffers, demand);
@@ -55,24 +177,320 @@ public class CarsharingBookingManager {
 			CarsharingStationMobsim Sd = br.getDestinationStation();
 			if(So != null) {
 				// keep in memory
-				this.stationBookingMap.get(So).add(br);
-				this.stationBookingMap.get(So).cancel(br);
+				this.track(So).register(br, false);
 			}
 			if(Sd != null)  {
 				// keep in memory
-				this.stationBookingMap.get(Sd).add(br);
-				this.stationBookingMap.get(Sd).cancel(br);
+				this.track(Sd).register(br, false);
 			}
 		}
 
 		// save booking
 		if(demand != null)
-			this.demandBookingMap.put(demand.getID(), br);
+			this.demandBookingMap.put(demand, br);
 		
 		return br;
 	}
 	
 	
+	/**
+	 * Book all the demands of a simulation second in one pass. The offers are computed and selected in parallel
+	 * against the availability at the beginning of the batch, then the bookings are processed one by one ordered by
+	 * agent id and trip index, so that runs are reproducible. Demands already booked are skipped.
+	 * The customers are notified and the booking events are thrown as in an immediate booking.
+	 * 
+	 * The offer tasks share the station searches and the relocation model: the kd-trees are read under their read lock, 
+	 * the nearest station cache is a concurrent map, the floating spots are synchronized, drives are routed with the trip
+	 * router of the worker thread, and the user relocations of {@link org.matsim.contrib.gcs.carsharing.AbstractRelocationStrategy} 
+	 * are serialized on the model.
+	 * 
+	 * @param time
+	 * @param demands
+	 * @return the booking records, in processing order
+	 */
+	public List<CarsharingBookingRecord> processBatch(final double time, Collection<CarsharingDemand> demands) {
+		ArrayList<CarsharingDemand> batch = new ArrayList<CarsharingDemand>();
+		for(CarsharingDemand d : demands) {
+			if(d != null && !this.demandBookingMap.containsKey(d)) batch.add(d);
+		}
+		Collections.sort(batch, new Comparator<CarsharingDemand>() {
+			@Override
+			public int compare(CarsharingDemand d1, CarsharingDemand d2) {
+				int c = d1.getAgent().getId().compareTo(d2.getAgent().getId());
+				return (c != 0) ? c : Integer.compare(d1.getTripIndex(), d2.getTripIndex());
+			}
+		});
+		
+		// [SYSTEM] Get Full Trips Offers, [CUSTOMER] Choose an Offer
+		Map<CarsharingStationMobsim, int[]> snapshot = this.availabilitySnapshot();
+		List<Future<ComputedOffers>> futures = new ArrayList<Future<ComputedOffers>>();
+		for(CarsharingDemand d : batch) {
+			futures.add(executor().submit(offerTask((int)time, d, snapshot)));
+		}
+		
+		// [SYSTEM] process Booking
+		List<CarsharingBookingRecord> records = new ArrayList<CarsharingBookingRecord>();
+		for(int i = 0; i < batch.size(); i++) {
+			CarsharingDemand d = batch.get(i);
+			ComputedOffers o = null;
+			try {
+				o = futures.get(i).get();
+			} catch (InterruptedException | ExecutionException e) {
+				throw new RuntimeException("Batch offers failed for " + d.getAgent().getId(), e);
+			}
+			CarsharingBookingRecord br = this.process(time, d, o.selectedOffer, o.offers);
+			if(d.getAgent() instanceof CarsharingCustomerMobsim) {
+				// [CUSTOMER] Booking Confirmation Feedback
+				((CarsharingCustomerMobsim) d.getAgent()).decision().acceptBooking(br, time);
+			}
+			this.m.events().processEvent(new CarsharingBookingEvent(time, this.m.getScenario(), this.m, d, br));
+			records.add(br);
+		}
+		return records;
+	}
+	
+	/**
+	 * Batch booking: the demand will be booked with the other demands departing at <code>time</code>, see {@link #processScheduledBookings(double)}
+	 */
+	public void scheduleBooking(int time, CarsharingDemand demand) {
+		if(demand == null || this.demandBookingMap.containsKey(demand)) return;
+		synchronized(this.scheduledBookings) {
+			List<CarsharingDemand> demands = this.scheduledBookings.get(time);
+			if(demands == null) {
+				demands = new ArrayList<CarsharingDemand>();
+				this.scheduledBookings.put(time, demands);
+			}
+			demands.add(demand);
+		}
+	}
+	
+	/**
+	 * Book with {@link #processBatch(double, Collection)} the scheduled demands departing at the next second. 
+	 * To be called at the end of the simulation step, so that they are booked before their activities end. 
+	 * The demands whose departure is already over were booked by their agents, they are dropped.
+	 * @param now
+	 * @return number of bookings
+	 */
+	public int processScheduledBookings(double now) {
+		int next = (int) now + 1;
+		int booked = 0;
+		while(true) {
+			Map.Entry<Integer, List<CarsharingDemand>> e = null;
+			synchronized(this.scheduledBookings) {
+				e = this.scheduledBookings.firstEntry();
+				if(e == null || e.getKey() > next) break;
+				this.scheduledBookings.remove(e.getKey());
+			}
+			if(e.getKey() == next) {
+				booked += this.processBatch(next, e.getValue()).size();
+			}
+		}
+		return booked;
+	}
+	
+	/**
+	 * Give back the vehicles and parking slots of the reservations whose hold time is over,
+	 * see {@link CarsharingBookingStation#expire(CarsharingBookingRecord)}
+	 * @param now
+	 * @return number of expired reservations
+	 */
+	public int expireReservations(double now) {
+		final int[] expired = new int[] { 0 };
+		this.reservations.advance((long) now, new TimingWheel.ExpiryHandler<Reservation>() {
+			@Override
+			public void expire(Reservation r, long deadline) {
+				if(track(r.station).expire(r.record)) {
+					expired[0]++;
+				}
+			}
+		});
+		if(expired[0] > 0) {
+			logger.info("[RESERVATION-EXPIRED] T:" + (int)now + " |count:" + expired[0]);
+		}
+		return expired[0];
+	}
+	
+	// *********
+	
+	/**
+	 * Speculative offers: the offers of the demand will be computed on the worker pool from <code>start</code>,
+	 * for a departure at <code>time</code>. See {@link #startScheduledOffers(double)}.
+	 */
+	public void scheduleOffers(double start, int time, CarsharingDemand demand) {
+		if(demand == null || this.demandBookingMap.containsKey(demand)) return;
+		ScheduledOffers so = new ScheduledOffers();
+		so.start = start;
+		so.time = time;
+		so.demand = demand;
+		synchronized(this.scheduledOffers) {
+			this.scheduledOffers.add(so);
+		}
+	}
+	
+	/**
+	 * Submit to the worker pool the speculative offers scheduled to start at or before now. 
+	 * The tasks of the step share one snapshot of the availability, see {@link #vehicleAvailability(CarsharingStationMobsim)}
+	 */
+	public void startScheduledOffers(double now) {
+		synchronized(this.scheduledOffers) {
+			Map<CarsharingStationMobsim, int[]> snapshot = null;
+			while(!this.scheduledOffers.isEmpty() && this.scheduledOffers.peek().start <= now) {
+				ScheduledOffers so = this.scheduledOffers.poll();
+				if(this.demandBookingMap.containsKey(so.demand)) continue;
+				if(snapshot == null) snapshot = this.availabilitySnapshot();
+				this.speculativeOfferMap.put(so.demand, executor().submit(offerTask(so.time, so.demand, snapshot)));
+			}
+		}
+	}
+	
+	/**
+	 * Drop the speculative offers of the demand, scheduled or computing, once they cannot be used anymore
+	 * @param demand
+	 */
+	public void cancelOffers(CarsharingDemand demand) {
+		synchronized(this.scheduledOffers) {
+			Iterator<ScheduledOffers> it = this.scheduledOffers.iterator();
+			while(it.hasNext()) {
+				if(it.next().demand == demand) it.remove();
+			}
+		}
+		Future<ComputedOffers> f = this.speculativeOfferMap.remove(demand);
+		if(f != null) f.cancel(true);
+	}
+	
+	/**
+	 * 
+	 * @param time
+	 * @param demand
+	 * @return the offers computed in advance for this demand with the one selected by the customer, 
+	 * <code>null</code> if none or if they were computed for another departure time
+	 */
+	public ComputedOffers getPrecomputedOffers(int time, CarsharingDemand demand) {
+		Future<ComputedOffers> f = this.speculativeOfferMap.remove(demand);
+		if(f == null) return null;
+		ComputedOffers o = null;
+		try {
+			o = f.get();
+		} catch (InterruptedException | ExecutionException e) {
+			logger.warn("[SPECULATIVE-OFFERS-FAILED] - " + demand.getAgent().getId(), e);
+			return null;
+		}
+		return (o.time == time) ? o : null;
+	}
+	
+	/**
+	 * Re-validate an offer computed in advance against the current availability, and the batteries of the vehicles
+	 * which the offer tasks do not check
+	 * @param offer
+	 * @return <code>true</code> if there are still enough charged vehicles at the access station and parking slots at the egress station 
+	 */
+	public boolean isStillAvailable(CarsharingOffer offer) {
+		int nbrOfVeh = offer.getNbOfVehicles();
+		CarsharingStationMobsim So = offer.getAccess().getStation();
+		CarsharingStationMobsim Sd = offer.getEgress().getStation();
+		CarsharingBookingStation Bo = (So == null) ? null : this.stationBookingMap.get(So);
+		CarsharingBookingStation Bd = (Sd == null) ? null : this.stationBookingMap.get(Sd);
+		return (Bo == null || Bo.vehicleAvailability() >= nbrOfVeh) && (Bd == null || Bd.parkingAvailability() >= nbrOfVeh) && 
+				(So == null || CarsharingUtils.checkbatteryFromBooking(this.m, So, offer.getAccess().getDistance(), offer.getAccess().getTravelTime(), nbrOfVeh));
+	}
+	
+	/**
+	 * 
+	 * @param station
+	 * @return the available vehicles of the station, from the snapshot of the offer task running on this thread if any
+	 */
+	public int vehicleAvailability(CarsharingStationMobsim station) {
+		int[] a = this.viewed(station);
+		return (a == null) ? this.track(station).vehicleAvailability() : a[0];
+	}
+	
+	/**
+	 * 
+	 * @param station
+	 * @return the free parking slots of the station, from the snapshot of the offer task running on this thread if any
+	 */
+	public int parkingAvailability(CarsharingStationMobsim station) {
+		int[] a = this.viewed(station);
+		return (a == null) ? this.track(station).parkingAvailability() : a[1];
+	}
+	
+	/**
+	 * 
+	 * @return <code>true</code> if an offer task runs on this thread, it reads a snapshot and not the live stations
+	 */
+	public boolean isSnapshotView() {
+		return this.availabilityView.get() != null;
+	}
+	
+	private int[] viewed(CarsharingStationMobsim station) {
+		Map<CarsharingStationMobsim, int[]> view = this.availabilityView.get();
+		return (view == null) ? null : view.get(station);
+	}
+	
+	/**
+	 * Vehicle and parking availability of the tracked stations, taken on the simulation thread. 
+	 * It is taken again only if an availability changed since the last one.
+	 */
+	private Map<CarsharingStationMobsim, int[]> availabilitySnapshot() {
+		Map<CarsharingStationMobsim, int[]> snapshot = this.availabilitySnapshot;
+		if(snapshot == null || this.availabilityDirty) {
+			this.availabilityDirty = false;
+			IdentityHashMap<CarsharingStationMobsim, int[]> a = new IdentityHashMap<CarsharingStationMobsim, int[]>(this.stationBookingMap.size());
+			for(CarsharingBookingStation b : this.stationBookingMap.values()) {
+				a.put(b.getStation(), new int[] { b.vehicleAvailability(), b.parkingAvailability() });
+			}
+			snapshot = Collections.unmodifiableMap(a);
+			this.availabilitySnapshot = snapshot;
+		}
+		return snapshot;
+	}
+	
+	private Callable<ComputedOffers> offerTask(final int time, final CarsharingDemand d, final Map<CarsharingStationMobsim, int[]> snapshot) {
+		return new Callable<ComputedOffers>() {
+			@Override
+			public ComputedOffers call() throws Exception {
+				availabilityView.set(snapshot);
+				try {
+					ComputedOffers o = new ComputedOffers();
+					o.time = time;
+					o.offers = offermodel.computeRentalOffers(time, d);
+					if(d.getAgent() instanceof CarsharingCustomerMobsim) {
+						o.selectedOffer = ((CarsharingCustomerMobsim) d.getAgent()).decision().selectOffer(o.offers);
+					}
+					return o;
+				} finally {
+					availabilityView.remove();
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Stop the worker pool of the batches and speculative offers, it is started again when needed
+	 */
+	public synchronized void shutdown() {
+		if(this.batchExecutor != null) {
+			this.batchExecutor.shutdownNow();
+			this.batchExecutor = null;
+		}
+	}
+	
+	private synchronized ExecutorService executor() {
+		if(this.batchExecutor == null) {
+			this.batchExecutor = Executors.newFixedThreadPool(
+					Math.max(1, this.m.getScenario().getConfig().global().getNumberOfThreads()), 
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "carsharing-booking");
+							t.setDaemon(true);
+							return t;
+						}
+					});
+		}
+		return this.batchExecutor;
+	}
+	
 	private CarsharingBookingRecord constructFailedRecord(double now, ArrayList<CarsharingOffer> offers, CarsharingDemand demand) {
 		CarsharingStationMobsim aStation = null;
 		CarsharingStationMobsim eStation = null;
@@ -119,8 +537,8 @@ public class CarsharingBookingManager {
 		return this.offermodel;
 	}
 	
-	public CarsharingBookingRecord getRecord(Leg demandID) {
-		return this.demandBookingMap.get(demandID);
+	public CarsharingBookingRecord getRecord(CarsharingDemand demand) {
+		return this.demandBookingMap.get(demand);
 	}
 	
 
@@ -128,15 +546,35 @@ public class CarsharingBookingManager {
 		return this.demandBookingMap.values();
 	}
 	
+	/**
+	 * 
+	 * @param station
+	 * @return the booking state of the station
+	 */
 	public CarsharingBookingStation track(CarsharingStationMobsim station) {
 		CarsharingBookingStation booking = this.stationBookingMap.get(station);
 		if(booking == null) {
 			booking = new CarsharingBookingStation(station);
-			this.stationBookingMap.put(station, booking);
+			booking.setAvailabilityListener(this.availabilityIndex);
+			CarsharingBookingStation previous = this.stationBookingMap.putIfAbsent(station, booking);
+			if(previous != null) booking = previous;
 		}
 		return booking;
 	}
 	
+	/**
+	 * 
+	 * @param station
+	 * @return a read-only snapshot of the booking state of the station, see {@link CarsharingBookingStation#snapshot()}
+	 */
+	public CarsharingBookingStation snapshot(CarsharingStationMobsim station) {
+		CarsharingBookingStation booking = this.stationBookingMap.get(station);
+		if(booking == null) {
+			booking = this.track(station);
+		}
+		return booking.snapshot();
+	}
+	
 	
 
 	
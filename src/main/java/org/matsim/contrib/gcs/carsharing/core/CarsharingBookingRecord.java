@@ -102,6 +102,8 @@ public class CarsharingBookingRecord {
 
 		public Boolean vehicleOffer() { return this.vehicleOffer!=null && this.vehicleOffer; }
 		public Boolean parkingOffer() { return this.parkingOffer!=null && this.parkingOffer; }
+		public Boolean vehicleOfferValue() { return this.vehicleOffer; }
+		public Boolean parkingOfferValue() { return this.parkingOffer; }
 		
 		public void setVehicleOffer(Boolean vo) {
 			this.vehicleOffer = vo;
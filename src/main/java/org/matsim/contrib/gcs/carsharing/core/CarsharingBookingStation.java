@@ -1,9 +1,10 @@
 package org.matsim.contrib.gcs.carsharing.core;
 
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.matsim.contrib.gcs.carsharing.impl.CarsharingStationFactory;
 
@@ -11,10 +12,21 @@ public class CarsharingBookingStation {
 	
 	protected final CarsharingStationMobsim station;
 	protected final Map<CarsharingBookingRecord, BookingRecordWrapper> booking_wrapper;
-	protected final SortedList<BookingRecordWrapper> car_availability_wrapper;
-	protected final SortedList<BookingRecordWrapper> park_availability_wrapper;
-	protected int car_availability_tracker;
-	protected int park_availability_tracker;
+	protected final BookingTimeline<BookingRecordWrapper> car_availability_wrapper;
+	protected final BookingTimeline<BookingRecordWrapper> park_availability_wrapper;
+	protected final AvailabilityTimeline<BookingRecordWrapper> car_availability_index;
+	protected final AvailabilityTimeline<BookingRecordWrapper> park_availability_index;
+	protected final AtomicInteger car_availability_tracker;
+	protected final AtomicInteger park_availability_tracker;
+	private final boolean frozen;
+	private volatile AvailabilityListener listener = null;
+	
+	/**
+	 * Notified after the vehicle or parking availability of the station changed
+	 */
+	public interface AvailabilityListener {
+		void availabilityChanged(CarsharingBookingStation b);
+	}
 	
 	protected class BookingRecordWrapper {
 		public CarsharingBookingRecord record;
@@ -24,14 +36,10 @@ public class CarsharingBookingStation {
 		public int car_availability_flag;
 		public int park_availability_flag;
 		public boolean status = false;
-		public BookingRecordWrapper(double time, boolean car_availability) {
-			if(car_availability) {
-				this.car_availability_time = time;
-			} else {
-				this.park_availability_time = time;
-			}
-		}
+		public boolean confirmed = false;
+		public boolean expired = false;
 		public BookingRecordWrapper(CarsharingBookingRecord record) {
+			checkWritable();
 			this.record = record;
 			this.isDemand = record.getOriginStation() != null && record.getOriginStation().equals(station);
 			if(!this.isDemand) {
@@ -48,52 +56,86 @@ public class CarsharingBookingStation {
 				this.car_availability_time = (offer == null)? record.getArrivalTime() : offer.getEgressTime();
 				this.park_availability_time = record.getDepartureTime();
 			}
-			car_availability_wrapper.add(this);
-			park_availability_wrapper.add(this);
+			this.insert();
+		}
+		/**
+		 * same record and times as w, the record is not changed
+		 */
+		BookingRecordWrapper(BookingRecordWrapper w) {
+			checkWritable();
+			this.record = w.record;
+			this.isDemand = w.isDemand;
+			this.car_availability_time = w.car_availability_time;
+			this.park_availability_time = w.park_availability_time;
+			this.insert();
+		}
+		private void insert() {
+			synchronized(car_availability_wrapper) { // a snapshot sees both timelines with or without this booking
+				car_availability_wrapper.add(this);
+				park_availability_wrapper.add(this);
+				car_availability_index.update(this.car_availability_time);
+				park_availability_index.update(this.park_availability_time);
+			}
 			booking_wrapper.put(record, this);
 		}
 		public void update() {
-			this.car_availability_flag = car_availability_tracker;
-			this.park_availability_flag = car_availability_tracker;
+			this.car_availability_flag = car_availability_tracker.get();
+			this.park_availability_flag = car_availability_tracker.get();
 		}
 	}
 	
 	public CarsharingBookingStation(CarsharingStationMobsim s) {
 		super();
+		this.frozen = false;
 		this.station = s;
-		this.booking_wrapper = new HashMap<CarsharingBookingRecord, BookingRecordWrapper>();
-		this.car_availability_wrapper = new SortedList<BookingRecordWrapper>(new Comparator<BookingRecordWrapper>() {
+		this.booking_wrapper = new ConcurrentHashMap<CarsharingBookingRecord, BookingRecordWrapper>();
+		this.car_availability_wrapper = new BookingTimeline<BookingRecordWrapper>(new BookingTimeline.TimeFunction<BookingRecordWrapper>() {
 			@Override
-			public int compare(BookingRecordWrapper o1, BookingRecordWrapper o2) {
-				return Double.compare(o1.car_availability_time, o2.car_availability_time);
+			public double getTime(BookingRecordWrapper w) {
+				return w.car_availability_time;
 			}
 		});
-		this.park_availability_wrapper = new SortedList<BookingRecordWrapper>(new Comparator<BookingRecordWrapper>() {
+		this.park_availability_wrapper = new BookingTimeline<BookingRecordWrapper>(new BookingTimeline.TimeFunction<BookingRecordWrapper>() {
 			@Override
-			public int compare(BookingRecordWrapper o1, BookingRecordWrapper o2) {
-				return Double.compare(o1.park_availability_time, o2.park_availability_time);
+			public double getTime(BookingRecordWrapper w) {
+				return w.park_availability_time;
+			}
+		});
+		this.car_availability_index = new AvailabilityTimeline<BookingRecordWrapper>(this.car_availability_wrapper, new AvailabilityTimeline.DeltaFunction<BookingRecordWrapper>() {
+			@Override
+			public int getDelta(BookingRecordWrapper w) {
+				return w.isDemand ? -w.record.getNbrOfVeh() : w.record.getNbrOfVeh(); // pick up (-), drop off (+)
+			}
+		});
+		this.park_availability_index = new AvailabilityTimeline<BookingRecordWrapper>(this.park_availability_wrapper, new AvailabilityTimeline.DeltaFunction<BookingRecordWrapper>() {
+			@Override
+			public int getDelta(BookingRecordWrapper w) {
+				return w.isDemand ? w.record.getNbrOfVeh() : -w.record.getNbrOfVeh(); // pick up (+), drop off (-)
 			}
 		});
 		if(s.parking() == null) {
-			this.car_availability_tracker = s.deployment().size();
-			this.park_availability_tracker = s.getCapacity() - s.deployment().size();
+			this.car_availability_tracker = new AtomicInteger(s.deployment().size());
+			this.park_availability_tracker = new AtomicInteger(s.getCapacity() - s.deployment().size());
 		} else {
-			this.car_availability_tracker = s.parking().getFleetSize();
-			this.park_availability_tracker = s.parking().getCapacity() - s.parking().getFleetSize();
+			this.car_availability_tracker = new AtomicInteger(s.parking().getFleetSize());
+			this.park_availability_tracker = new AtomicInteger(s.parking().getCapacity() - s.parking().getFleetSize());
 		}
 	}
 	
+	/**
+	 * Copy on a copy of the station: starts from the deployment and books again the records of b, which are left unchanged
+	 * @param b
+	 */
 	public CarsharingBookingStation(CarsharingBookingStation b) {
 		this(CarsharingStationFactory.getStationCopy(b.station));
-		this.car_availability_tracker = b.station.deployment().size();
-		this.park_availability_tracker = b.station.parking().getCapacity() - b.station.deployment().size();
-		for(BookingRecordWrapper w : b.car_availability_wrapper) {
-			if(w.isDemand) {
-				w.record.setOriginStation(this.station);
-			} else {
-				w.record.setDestinationStation(this.station);
+		this.car_availability_tracker.set(b.station.deployment().size());
+		this.park_availability_tracker.set(b.station.parking().getCapacity() - b.station.deployment().size());
+		synchronized(b.car_availability_wrapper) {
+			for(BookingRecordWrapper w : b.car_availability_wrapper) {
+				BookingRecordWrapper c = new BookingRecordWrapper(w);
+				c.status = c.isDemand ? this.reserveVehicle(c.record.getNbrOfVeh()) : this.reserveParking(c.record.getNbrOfVeh());
+				c.update();
 			}
-			this.add(w.record);
 		}
 	}
 		
@@ -101,67 +143,210 @@ public class CarsharingBookingStation {
 		return this.station;
 	}
 	
+	/**
+	 * Read-only version of b on a copy of its station, it shares the timelines of b as they are now
+	 */
+	private CarsharingBookingStation(CarsharingBookingStation b, CarsharingStationMobsim s) {
+		super();
+		this.frozen = true;
+		this.station = s;
+		this.booking_wrapper = new ConcurrentHashMap<CarsharingBookingRecord, BookingRecordWrapper>();
+		synchronized(b.car_availability_wrapper) {
+			synchronized(b.park_availability_wrapper) {
+				this.car_availability_wrapper = b.car_availability_wrapper.version();
+				this.park_availability_wrapper = b.park_availability_wrapper.version();
+				this.car_availability_index = b.car_availability_index.version(this.car_availability_wrapper);
+				this.park_availability_index = b.park_availability_index.version(this.park_availability_wrapper);
+				this.car_availability_tracker = new AtomicInteger(b.car_availability_tracker.get());
+				this.park_availability_tracker = new AtomicInteger(b.park_availability_tracker.get());
+			}
+		}
+	}
+	
+	/**
+	 * Read-only snapshot of the booking state, taken without copying the bookings: it shares the timelines of this 
+	 * booking station, which stays writable, and sees the bookings registered before it. The records are the live ones.
+	 */
+	public CarsharingBookingStation snapshot() {
+		return new CarsharingBookingStation(this, CarsharingStationFactory.getStationCopy(this.station));
+	}
+	
+	public boolean isFrozen() {
+		return this.frozen;
+	}
+	
+	/**
+	 * Set the listener, which is notified once with the current availability
+	 * @param l
+	 */
+	public void setAvailabilityListener(AvailabilityListener l) {
+		this.listener = l;
+		this.availabilityChanged();
+	}
+	
+	private void availabilityChanged() {
+		AvailabilityListener l = this.listener;
+		if(l != null) l.availabilityChanged(this);
+	}
+	
+	private void checkWritable() {
+		if(this.frozen) {
+			throw new RuntimeException("Booking state of station " + this.station.getId() + " is a read-only snapshot");
+		}
+	}
+	
 	public void confirm(CarsharingBookingRecord record) {
+		checkWritable();
 		BookingRecordWrapper w = this.booking_wrapper.get(record);
+		synchronized(w) {
+			if(w.expired) {
+				// the reservation was given back, the vehicle(s) or parking slot(s) are taken without it
+				if(w.isDemand) {
+					this.car_availability_tracker.addAndGet(-record.getNbrOfVeh());
+				} else {
+					this.park_availability_tracker.addAndGet(-record.getNbrOfVeh());
+				}
+				w.expired = false;
+			}
+			w.confirmed = true;
+		}
 		if(w.isDemand) {
 			// increase parking availability after the vehicle(s) left the station. We don't do this at the booking since the vehicle(s) are still parked
-			this.park_availability_tracker += record.getNbrOfVeh(); 
+			this.park_availability_tracker.addAndGet(record.getNbrOfVeh()); 
 		} else {
 			// increase car availability after the vehicle(s) arrives to the station. We don't do this at the booking since the vehicle(s) didn't arrive yet
-			this.car_availability_tracker += record.getNbrOfVeh();
+			this.car_availability_tracker.addAndGet(record.getNbrOfVeh());
 		}
+		this.availabilityChanged();
 	}
 	
 	public void cancel(CarsharingBookingRecord record) {
+		checkWritable();
 		BookingRecordWrapper w = this.booking_wrapper.get(record);
-		if(w.status) {
-			if(w.isDemand) {
-				this.car_availability_tracker += record.getNbrOfVeh();
-			} else {
-				this.park_availability_tracker += record.getNbrOfVeh();
-			}
+		synchronized(w) {
+			if(!w.status || w.expired) return;
+			w.status = false;
+		}
+		if(w.isDemand) {
+			this.releaseVehicle(record.getNbrOfVeh());
+		} else {
+			this.releaseParking(record.getNbrOfVeh());
 		}
 	}
+	
+	/**
+	 * Give back the vehicle(s) or parking slot(s) of a reservation which was neither confirmed nor cancelled
+	 * @param record
+	 * @return <code>true</code> if the reservation expired
+	 */
+	public boolean expire(CarsharingBookingRecord record) {
+		checkWritable();
+		BookingRecordWrapper w = this.booking_wrapper.get(record);
+		if(w == null) return false;
+		synchronized(w) {
+			if(!w.status || w.confirmed || w.expired) return false;
+			w.expired = true;
+		}
+		if(w.isDemand) {
+			this.releaseVehicle(record.getNbrOfVeh());
+		} else {
+			this.releaseParking(record.getNbrOfVeh());
+		}
+		return true;
+	}
 		
 	public boolean add(CarsharingBookingRecord record) {
 		BookingRecordWrapper w = new BookingRecordWrapper(record);
-		if(w.isDemand && record.getNbrOfVeh() <= this.car_availability_tracker) {
-			this.car_availability_tracker -= record.getNbrOfVeh(); // decrease car availability, or in other words to book a vehicle
-			w.status = true;
-		} else if (!w.isDemand && record.getNbrOfVeh() <= this.park_availability_tracker) {
-			this.park_availability_tracker -= record.getNbrOfVeh(); // decrease parking availability, or in other words to book a parking slot
-			w.status = true;
-		} 
-		if(this.car_availability_tracker < 0 || this.park_availability_tracker > this.station.parking().getCapacity()) {
-			throw new RuntimeException("Availability in station "+ this.station + " is " + this.car_availability_tracker);
-		}
+		w.status = w.isDemand ? this.reserveVehicle(record.getNbrOfVeh()) : this.reserveParking(record.getNbrOfVeh());
 		w.update();
 		return w.status;
 	}
 	
+	/**
+	 * Keep in memory a booking whose vehicles or parking slots were already reserved, or not, with {@link #reserveVehicle(int)} and {@link #reserveParking(int)}
+	 * @param record
+	 * @param status <code>true</code> if the booking holds a reservation in this station
+	 */
+	public void register(CarsharingBookingRecord record, boolean status) {
+		BookingRecordWrapper w = new BookingRecordWrapper(record);
+		w.status = status;
+		w.update();
+	}
+	
 	// *********
 	
-	protected SortedList<BookingRecordWrapper> getCarAvailability(double lb, double ub) {
-		BookingRecordWrapper lb_w = new BookingRecordWrapper(lb, true);
-		BookingRecordWrapper ub_w = new BookingRecordWrapper(ub, true);
-		SortedList<BookingRecordWrapper> sublist = this.car_availability_wrapper.subList(lb_w, ub_w);
-		return sublist;
+	/**
+	 * Book vehicle(s), or in other words decrease car availability. Lock-free, fails without side effect if there are not enough vehicles.
+	 * @param nbrOfVeh
+	 * @return <code>true</code> if the vehicle(s) are reserved
+	 */
+	public boolean reserveVehicle(int nbrOfVeh) {
+		checkWritable();
+		if(!reserve(this.car_availability_tracker, nbrOfVeh)) return false;
+		this.availabilityChanged();
+		return true;
+	}
+	
+	/**
+	 * Book parking slot(s), or in other words decrease parking availability. Lock-free, fails without side effect if there are not enough slots.
+	 * @param nbrOfVeh
+	 * @return <code>true</code> if the parking slot(s) are reserved
+	 */
+	public boolean reserveParking(int nbrOfVeh) {
+		checkWritable();
+		if(!reserve(this.park_availability_tracker, nbrOfVeh)) return false;
+		this.availabilityChanged();
+		return true;
+	}
+	
+	public void releaseVehicle(int nbrOfVeh) {
+		checkWritable();
+		this.car_availability_tracker.addAndGet(nbrOfVeh);
+		this.availabilityChanged();
 	}
 	
-	protected SortedList<BookingRecordWrapper> getParkAvailability(double lb, double ub) {
-		BookingRecordWrapper lb_w = new BookingRecordWrapper(lb, false);
-		BookingRecordWrapper ub_w = new BookingRecordWrapper(ub, false);
-		SortedList<BookingRecordWrapper> sublist = this.park_availability_wrapper.subList(lb_w, ub_w);
-		return sublist;
+	public void releaseParking(int nbrOfVeh) {
+		checkWritable();
+		int p = this.park_availability_tracker.addAndGet(nbrOfVeh);
+		if(p > this.station.parking().getCapacity()) {
+			throw new RuntimeException("Parking availability in station "+ this.station + " is " + p);
+		}
+		this.availabilityChanged();
+	}
+	
+	private static boolean reserve(AtomicInteger tracker, int nbrOfVeh) {
+		while(true) {
+			int available = tracker.get();
+			if(nbrOfVeh > available) return false;
+			if(tracker.compareAndSet(available, available - nbrOfVeh)) return true;
+		}
+	}
+	
+	// *********
+	
+	/**
+	 * view on the car availability timeline, to be iterated while holding the lock of <code>car_availability_wrapper</code> 
+	 */
+	protected Collection<BookingRecordWrapper> getCarAvailability(double lb, double ub) {
+		return this.car_availability_wrapper.subList(lb, ub);
+	}
+	
+	/**
+	 * view on the park availability timeline, to be iterated while holding the lock of <code>park_availability_wrapper</code> 
+	 */
+	protected Collection<BookingRecordWrapper> getParkAvailability(double lb, double ub) {
+		return this.park_availability_wrapper.subList(lb, ub);
 	} 
 	
 	// *********
 	
 	public CarsharingBookingRecord[] getDemand(double lowerBorn, double upperBorn) {
 		ArrayList<CarsharingBookingRecord> records = new ArrayList<CarsharingBookingRecord>();
-		for(BookingRecordWrapper w : getCarAvailability(lowerBorn, upperBorn)) {
-			if(w.isDemand) {
-				records.add(w.record);
+		synchronized(this.car_availability_wrapper) {
+			for(BookingRecordWrapper w : getCarAvailability(lowerBorn, upperBorn)) {
+				if(w.isDemand) {
+					records.add(w.record);
+				}
 			}
 		}
 		return records.toArray(new CarsharingBookingRecord[0]);
@@ -169,9 +354,11 @@ public class CarsharingBookingStation {
 	
 	public CarsharingBookingRecord[] getSupply(double lowerBorn, double upperBorn) {
 		ArrayList<CarsharingBookingRecord> records = new ArrayList<CarsharingBookingRecord>();
-		for(BookingRecordWrapper w : getParkAvailability(lowerBorn, upperBorn)) {
-			if(!w.isDemand) {
-				records.add(w.record);
+		synchronized(this.park_availability_wrapper) {
+			for(BookingRecordWrapper w : getParkAvailability(lowerBorn, upperBorn)) {
+				if(!w.isDemand) {
+					records.add(w.record);
+				}
 			}
 		}
 		return records.toArray(new CarsharingBookingRecord[0]);
@@ -190,29 +377,29 @@ public class CarsharingBookingStation {
 	// *********
 		
 	public int vehicleAvailability() {
-		return this.car_availability_tracker;
+		return this.car_availability_tracker.get();
 	}
 	
 	public int vehicleAvailability(double time) {		
-		SortedList<BookingRecordWrapper> sublist = getCarAvailability(0, time);
-		if(sublist.isEmpty()) 
-			return this.car_availability_tracker;
+		BookingRecordWrapper last = this.car_availability_wrapper.last(0, time);
+		if(last == null) 
+			return this.car_availability_tracker.get();
 		else 
-			return sublist.getLast().car_availability_flag;
+			return last.car_availability_flag;
 	}
 	
 	// *********
 	
 	public int parkingAvailability() {
-		return this.park_availability_tracker;
+		return this.park_availability_tracker.get();
 	}
 	
 	public int parkingAvailability(double time) {
-		SortedList<BookingRecordWrapper> sublist = getParkAvailability(0, time);
-		if(sublist.isEmpty()) 
-			return this.park_availability_tracker;
+		BookingRecordWrapper last = this.park_availability_wrapper.last(0, time);
+		if(last == null) 
+			return this.park_availability_tracker.get();
 		else 
-			return sublist.getLast().park_availability_flag;
+			return last.park_availability_flag;
 	}
 	
 }
@@ -1,5 +1,7 @@
 package org.matsim.contrib.gcs.carsharing.core;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.matsim.api.core.v01.population.Activity;
 import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.Plan;
@@ -12,6 +14,9 @@ import org.matsim.contrib.gcs.utils.CarsharingUtils;
  */
 public class CarsharingDemand {
 	
+	private static final AtomicLong index_sequence = new AtomicLong(); // never reset, demands outlive their iteration
+	
+	private final long index;
 	private CarsharingAgent person;
 	private Activity origin;
 	private Activity destination;
@@ -33,6 +38,7 @@ public class CarsharingDemand {
 	
 	public CarsharingDemand(Leg carsharingLeg, CarsharingAgent person, Activity origin, Activity destination, int numberOfVehicles) {
 		
+		this.index = index_sequence.getAndIncrement();
 		this.person = person;
 		this.origin = origin;
 		this.destination = destination;
@@ -66,6 +72,7 @@ public class CarsharingDemand {
 	}
 
 	public Leg getID() { return carsharingLeg; }
+	public long getIndex() { return this.index; }
 	public CarsharingAgent getAgent() { return this.person; }		
 	public Activity getOrigin() { return this.origin; }
 	public Activity getDestination() { return this.destination; }
@@ -75,6 +82,11 @@ public class CarsharingDemand {
 	public int getTripIndex() { return this.tripindex; }
 	public int getPlanIndex() { return this.planindex; }
 	
+	/**
+	 * @return the dense index that the next demand will get
+	 */
+	public static long nextIndex() { return index_sequence.get(); }
+	
 	public static CarsharingDemand getInstance(CarsharingCustomerMobsim user, Leg carsharingLegID, Plan currentPlan) {
 		if(!CarsharingUtils.isUnRoutedCarsharingLeg(carsharingLegID)) {
 			return null;
@@ -0,0 +1,98 @@
+package org.matsim.contrib.gcs.carsharing.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Flat array of values indexed by the dense index of their demand, see {@link CarsharingDemand#getIndex()}.
+ * Indexes are counted from the first demand created after the last {@link #clear()}, so that the array
+ * only spans the demands of the current iteration. The few demands created before, and kept by their agents, 
+ * go to a map.
+ *
+ * @param <T>
+ */
+public class CarsharingDemandArray<T> {
+
+	private Object[] values;
+	private final Map<CarsharingDemand, T> older;
+	private long base;
+	private int count;
+
+	public CarsharingDemandArray() {
+		this.values = new Object[1024];
+		this.older = new IdentityHashMap<CarsharingDemand, T>();
+		this.clear();
+	}
+
+	public synchronized T get(CarsharingDemand d) {
+		long i = d.getIndex() - this.base;
+		if(i < 0) return this.older.get(d);
+		return (i >= this.values.length) ? null : value((int) i);
+	}
+
+	public boolean containsKey(CarsharingDemand d) {
+		return this.get(d) != null;
+	}
+
+	/**
+	 *
+	 * @param d
+	 * @param t
+	 * @return the previous value of the demand, <code>null</code> if none
+	 */
+	public synchronized T put(CarsharingDemand d, T t) {
+		long i = d.getIndex() - this.base;
+		if(i < 0) {
+			T previous = (t == null) ? this.older.remove(d) : this.older.put(d, t);
+			if(previous == null && t != null) this.count++;
+			if(previous != null && t == null) this.count--;
+			return previous;
+		}
+		if(i >= Integer.MAX_VALUE - 8) {
+			throw new RuntimeException("Too many demands since the last clear: " + i);
+		}
+		if(i >= this.values.length) {
+			this.values = Arrays.copyOf(this.values, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(i + 1, 2L * this.values.length)));
+		}
+		T previous = value((int) i);
+		this.values[(int) i] = t;
+		if(previous == null && t != null) this.count++;
+		if(previous != null && t == null) this.count--;
+		return previous;
+	}
+
+	public T remove(CarsharingDemand d) {
+		return this.put(d, null);
+	}
+
+	public synchronized int size() {
+		return this.count;
+	}
+
+	/**
+	 * @return a copy of the values, by demand index
+	 */
+	public synchronized ArrayList<T> values() {
+		ArrayList<T> list = new ArrayList<T>(this.count);
+		list.addAll(this.older.values());
+		for(int i = 0; i < this.values.length && list.size() < this.count; i++) {
+			if(this.values[i] != null) list.add(value(i));
+		}
+		return list;
+	}
+
+	public synchronized void clear() {
+		Arrays.fill(this.values, null);
+		this.older.clear();
+		this.base = CarsharingDemand.nextIndex();
+		this.count = 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T value(int i) {
+		return (T) this.values[i];
+	}
+
+}
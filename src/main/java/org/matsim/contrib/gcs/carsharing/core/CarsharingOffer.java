@@ -188,6 +188,11 @@ public class CarsharingOffer {
 		public int getTravelTime() { return this.travelTime; }
 		public double getDistance() { return distance; }
 		public List<? extends PlanElement> getRoute() { return this.route; }
+		/**
+		 * keep the path routed for the booked offer, once it is needed
+		 * @param route
+		 */
+		public void setRoute(List<? extends PlanElement> route) { this.route = route; }
 		public int getTime() { return this.time; }
 		public int getOffset() { return this.offset; }
 		public int getNbVehicles() { return this.nVEH; }
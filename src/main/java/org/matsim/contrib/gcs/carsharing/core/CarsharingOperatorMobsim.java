@@ -8,6 +8,13 @@ import org.matsim.contrib.gcs.operation.model.CarsharingOperatorChoiceModel;
 
 public interface CarsharingOperatorMobsim extends CarsharingAgent {
 
+	/**
+	 * Notified after the location or the availability of the operator may have changed
+	 */
+	interface StateListener {
+		void stateChanged(CarsharingOperatorMobsim op);
+	}
+	
 	CarsharingOperatorChoiceModel decision();
 	
 	CarsharingStationMobsim getLocation();
@@ -26,4 +33,10 @@ public interface CarsharingOperatorMobsim extends CarsharingAgent {
 	void addManyTasks(Collection<CarsharingRelocationTask> tasks);
 	public CarsharingRelocationTask endTask();
 	
+	/**
+	 * Set the listener, which is notified once with the current state
+	 * @param l
+	 */
+	void setStateListener(StateListener l);
+	
 }
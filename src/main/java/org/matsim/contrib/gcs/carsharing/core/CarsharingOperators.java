@@ -6,4 +6,20 @@ public interface CarsharingOperators extends GeoContainer<CarsharingOperatorMobs
 	
 	List<CarsharingOperatorMobsim> availableSet();
 	
+	/**
+	 * 
+	 * @param station
+	 * @return the idle operators at the station
+	 */
+	List<CarsharingOperatorMobsim> availableAt(CarsharingStationMobsim station);
+	
+	/**
+	 * 
+	 * @param station
+	 * @param k
+	 * @param distance
+	 * @return the k nearest idle operators within distance of the station, closest first
+	 */
+	List<CarsharingOperatorMobsim> nearestAvailable(CarsharingStationMobsim station, int k, double distance);
+	
 }
@@ -0,0 +1,46 @@
+package org.matsim.contrib.gcs.carsharing.core;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Spatial index of stations or operators, see {@link org.matsim.contrib.gcs.carsharing.impl.CarsharingSpatialIndexFactory}
+ * for the available implementations.
+ *
+ * @param <T>
+ */
+public interface CarsharingSpatialIndex<T> {
+
+	void put(double x, double y, T t);
+
+	/**
+	 * Add elements at once, element i at (x[i], y[i])
+	 */
+	void putAll(double[] x, double[] y, List<? extends T> ts);
+
+	/**
+	 *
+	 * @return <code>false</code> if the element is not in the index
+	 */
+	boolean remove(double x, double y, T t);
+
+	/**
+	 *
+	 * @param x
+	 * @param y
+	 * @param distance included
+	 * @return the elements within distance of (x, y)
+	 */
+	Collection<T> getDisk(double x, double y, double distance);
+
+	/**
+	 *
+	 * @return the closest element of (x, y), <code>null</code> if the index is empty
+	 */
+	T getClosest(double x, double y);
+
+	int size();
+
+	void clear();
+
+}
@@ -1,7 +1,5 @@
 package org.matsim.contrib.gcs.carsharing.core;
 
-import java.util.ArrayList;
-
 import org.matsim.contrib.gcs.carsharing.core.CarsharingBookingStation.BookingRecordWrapper;
 
 public class CarsharingStationDemand {
@@ -10,7 +8,7 @@ public class CarsharingStationDemand {
 	double coef = Double.NaN;
 
 	public CarsharingStationDemand(CarsharingBookingStation b) {
-		b = new CarsharingBookingStation(b);
+		this.b = new CarsharingBookingStation(b);
 	}
 	
 	public CarsharingStationDemand(CarsharingStationMobsim s) {
@@ -25,11 +23,11 @@ public class CarsharingStationDemand {
 	public boolean push(CarsharingBookingRecord dm) {
 		BookingRecordWrapper w = b.new BookingRecordWrapper(dm);
 		if(w.isDemand) {
-			b.car_availability_tracker -= dm.getNbrOfVeh();
-			b.park_availability_tracker += dm.getNbrOfVeh();
+			b.car_availability_tracker.addAndGet(-dm.getNbrOfVeh());
+			b.park_availability_tracker.addAndGet(dm.getNbrOfVeh());
 		} else {
-			b.car_availability_tracker += dm.getNbrOfVeh();
-			b.park_availability_tracker -= dm.getNbrOfVeh();
+			b.car_availability_tracker.addAndGet(dm.getNbrOfVeh());
+			b.park_availability_tracker.addAndGet(-dm.getNbrOfVeh());
 		} 
 		w.status = true;
 		w.update();
@@ -38,36 +36,19 @@ public class CarsharingStationDemand {
 	
 	
 	public int vehicleMinAvailability(int V0, double lb, double up) {
-		int min_cav = V0;
-		int av = min_cav;
-		SortedList<BookingRecordWrapper> sublist = b.getCarAvailability(lb, up);
-		for(BookingRecordWrapper w : sublist) {
-			//if(!w.status) continue;
-			if(w.isDemand) { // is pick up (-)
-				av -= w.record.getNbrOfVeh();
-			} else { // is drop off (+)
-				av += w.record.getNbrOfVeh();
-			}
-			min_cav = (av < min_cav) ? av:min_cav; 
-		}
-		
-		return min_cav;
+		return V0 + b.car_availability_index.minimum(lb, up);
 	}
 	
 	public int parkingMinAvailability(int V0, double lb, double up) {
-		int min_pav = b.station.parking().getCapacity() - V0;
-		int pav = min_pav;
-		SortedList<BookingRecordWrapper> sublist = b.getParkAvailability(lb, up);
-		for(BookingRecordWrapper w : sublist) {
-			//if(!w.status) continue;
-			if(!w.isDemand) { // is drop off (-)
-				pav -= w.record.getNbrOfVeh();
-			} else { // is pick up (+)
-				pav += w.record.getNbrOfVeh();
-			}
-			min_pav = (pav < min_pav) ? pav:min_pav; 
-		}
-		return min_pav;
+		return b.station.parking().getCapacity() - V0 + b.park_availability_index.minimum(lb, up);
+	}
+	
+	public int vehicleAvailability(int V0, double time) {
+		return V0 + b.car_availability_index.sum(0, time);
+	}
+	
+	public int parkingAvailability(int V0, double time) {
+		return b.station.parking().getCapacity() - V0 + b.park_availability_index.sum(0, time);
 	}
 	
 	public CarsharingStationMobsim getStation() {
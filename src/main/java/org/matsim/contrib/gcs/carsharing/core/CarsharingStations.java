@@ -2,4 +2,13 @@ package org.matsim.contrib.gcs.carsharing.core;
 
 public interface CarsharingStations extends GeoContainer<CarsharingStationMobsim>  {
 
+	int VEHICLE_AVAILABILITY = 0;
+	int PARKING_AVAILABILITY = 1;
+
+	/**
+	 * same stations as {@link #index()}, for k nearest queries. The attributes {@link #VEHICLE_AVAILABILITY} and
+	 * {@link #PARKING_AVAILABILITY} of a station are updated by the booking manager at every time step
+	 */
+	KdTree<CarsharingStationMobsim> kdtree();
+
 }
@@ -1,9 +1,22 @@
 package org.matsim.contrib.gcs.carsharing.core;
 
+import java.util.List;
+
 import org.matsim.core.utils.collections.QuadTree;
 
 public interface GeoContainer<T> extends GenericContainer<T> {
 
+	CarsharingSpatialIndex<T> index();
+	
+	/**
+	 * @deprecated use {@link #index()}, the quadtree is only there when the spatial index is one
+	 */
+	@Deprecated
 	QuadTree<T> qtree();
 	
+	/**
+	 * add all the elements, the spatial index is bulk loaded
+	 */
+	void addAll(final List<T> ts);
+	
 }
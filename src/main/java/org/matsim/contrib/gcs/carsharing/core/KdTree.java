@@ -0,0 +1,466 @@
+package org.matsim.contrib.gcs.carsharing.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Two dimensional tree of points with a best-first k nearest query. Each node keeps the bounding box of its subtree,
+ * the query visits the nodes by increasing distance to their box and keeps the k best points in a bounded heap,
+ * so that only the part of the tree that can still hold one of the k nearest points is walked.
+ *
+ * Points can carry integer attributes, each node also keeps the maximum of every attribute over its subtree so that
+ * a query for points with an attribute of at least a given value skips the subtrees which have none.
+ *
+ * Removed points are only marked, the tree is rebuilt balanced from the remaining points once the marked ones outnumber them,
+ * or once an inserted point lies more than twice as deep as in a balanced tree and the tree has grown by half since it was built.
+ * Attribute updates do not change the shape of the tree. Points with the same coordinate as a split go to either side,
+ * pseudo randomly, so that many points at one location do not make a chain; queries and removals follow the boxes.
+ * Queries can run concurrently, updates are exclusive.
+ *
+ * @param <T>
+ */
+public class KdTree<T> {
+
+	public interface Filter<T> {
+		boolean accept(T t);
+	}
+
+	private static final class Candidate {
+		final int node;
+		final double d2;
+		Candidate(int node, double d2) {
+			this.node = node;
+			this.d2 = d2;
+		}
+	}
+
+	private static final Comparator<Candidate> CLOSEST_FIRST = new Comparator<Candidate>() {
+		@Override
+		public int compare(Candidate o1, Candidate o2) {
+			return Double.compare(o1.d2, o2.d2);
+		}
+	};
+
+	private static final Comparator<Candidate> FARTHEST_FIRST = Collections.reverseOrder(CLOSEST_FIRST);
+
+	private final ReentrantReadWriteLock lock;
+	private final int attributes;
+	private final Map<T, Integer> index;
+	private double[] x;
+	private double[] y;
+	private double[] minx;
+	private double[] miny;
+	private double[] maxx;
+	private double[] maxy;
+	private int[] left;
+	private int[] right;
+	private int[] parent;
+	private int[][] attribute;
+	private int[][] max;
+	private boolean[] removed;
+	private Object[] values;
+	private int nodes;
+	private int size;
+	private int inserted;
+
+	public KdTree() {
+		this(0);
+	}
+
+	/**
+	 *
+	 * @param attributes number of integer attributes of a point, all 0 when the point is added
+	 */
+	public KdTree(int attributes) {
+		this.lock = new ReentrantReadWriteLock();
+		this.attributes = attributes;
+		this.index = new IdentityHashMap<T, Integer>();
+		this.clear();
+	}
+
+	public void put(double px, double py, T t) {
+		this.lock.writeLock().lock();
+		try {
+			insert(px, py, t);
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Add points at once, an empty tree is built balanced by median splits
+	 * @param px
+	 * @param py
+	 * @param ts
+	 */
+	public void putAll(double[] px, double[] py, List<? extends T> ts) {
+		this.lock.writeLock().lock();
+		try {
+			if(this.nodes > 0) {
+				for(int i = 0; i < ts.size(); i++) {
+					insert(px[i], py[i], ts.get(i));
+				}
+			} else if(!ts.isEmpty()) {
+				build(px, py, new ArrayList<T>(ts));
+			}
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	private void insert(double px, double py, T t) {
+		int n = newNode(px, py, t);
+		int depth = 0;
+		if(n > 0) {
+			int node = 0;
+			while(true) {
+				extend(node, px, py);
+				double p = ((depth & 1) == 0) ? px : py;
+				double split = ((depth & 1) == 0) ? this.x[node] : this.y[node];
+				boolean goLeft = (p == split) ? tie(n, depth) : p < split;
+				int next = goLeft ? this.left[node] : this.right[node];
+				depth++;
+				if(next < 0) {
+					if(goLeft) this.left[node] = n; else this.right[node] = n;
+					this.parent[n] = node;
+					break;
+				}
+				node = next;
+			}
+		}
+		for(int a = 0; a < this.attributes; a++) {
+			propagate(this.parent[n], a);
+		}
+		this.index.put(t, n);
+		this.size++;
+		this.inserted++;
+		if(depth > 2 * (32 - Integer.numberOfLeadingZeros(this.size)) && 2 * this.inserted >= this.size) compact();
+	}
+
+	private void build(double[] px, double[] py, ArrayList<T> ts) {
+		Integer[] order = new Integer[ts.size()];
+		for(int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		build(order, 0, order.length, 0, px, py, ts);
+	}
+
+	private int build(Integer[] order, int from, int to, int depth, final double[] px, final double[] py, ArrayList<T> ts) {
+		if(from >= to) return -1;
+		final double[] axis = ((depth & 1) == 0) ? px : py;
+		Arrays.sort(order, from, to, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Double.compare(axis[o1], axis[o2]);
+			}
+		});
+		int m = (from + to) >>> 1; // equal coordinates on both sides of the median
+		int i = order[m];
+		int n = newNode(px[i], py[i], ts.get(i));
+		this.index.put(ts.get(i), n);
+		this.size++;
+		int l = build(order, from, m, depth + 1, px, py, ts);
+		int r = build(order, m + 1, to, depth + 1, px, py, ts);
+		this.left[n] = l;
+		this.right[n] = r;
+		for(int c : new int[] { l, r }) {
+			if(c < 0) continue;
+			this.parent[c] = n;
+			extend(n, this.minx[c], this.miny[c]);
+			extend(n, this.maxx[c], this.maxy[c]);
+		}
+		return n;
+	}
+
+	/**
+	 *
+	 * @param px
+	 * @param py
+	 * @param t
+	 * @return <code>false</code> if the point is not in the tree
+	 */
+	public boolean remove(double px, double py, T t) {
+		this.lock.writeLock().lock();
+		try {
+			int node = find(px, py, t);
+			if(node < 0) return false;
+			Integer i = this.index.get(this.values[node]);
+			if(i != null && i == node) this.index.remove(this.values[node]);
+			this.removed[node] = true;
+			this.values[node] = null;
+			for(int a = 0; a < this.attributes; a++) {
+				this.attribute[a][node] = 0;
+				propagate(node, a);
+			}
+			this.size--;
+			if(this.nodes - this.size > this.size) compact();
+			return true;
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Set an attribute of a point, no effect if the point is not in the tree
+	 * @param t
+	 * @param a attribute index
+	 * @param value
+	 */
+	public void update(T t, int a, int value) {
+		this.lock.writeLock().lock();
+		try {
+			Integer n = this.index.get(t);
+			if(n == null || this.attribute[a][n] == value) return;
+			this.attribute[a][n] = value;
+			propagate(n, a);
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 *
+	 * @param px
+	 * @param py
+	 * @param k maximum number of points
+	 * @param distance search radius, included
+	 * @param filter points to consider, <code>null</code> for all
+	 * @return at most k points within distance of (px, py), closest first
+	 */
+	public List<T> nearest(double px, double py, int k, double distance, Filter<? super T> filter) {
+		return nearest(px, py, k, distance, filter, -1, 0);
+	}
+
+	/**
+	 *
+	 * @param px
+	 * @param py
+	 * @param k maximum number of points
+	 * @param distance search radius, included
+	 * @param filter points to consider, <code>null</code> for all
+	 * @param a attribute index, -1 for none
+	 * @param minimum lowest value of the attribute
+	 * @return at most k points within distance of (px, py) whose attribute is at least minimum, closest first
+	 */
+	public List<T> nearest(double px, double py, int k, double distance, Filter<? super T> filter, int a, int minimum) {
+		ArrayList<T> list = new ArrayList<T>();
+		if(k <= 0) return list;
+		final double max2 = distance * distance;
+		this.lock.readLock().lock();
+		try {
+			if(this.nodes == 0 || (a >= 0 && this.max[a][0] < minimum)) return list;
+			PriorityQueue<Candidate> best = new PriorityQueue<Candidate>(k + 1, FARTHEST_FIRST);
+			PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>(16, CLOSEST_FIRST);
+			queue.add(new Candidate(0, boxDistance2(0, px, py)));
+			while(!queue.isEmpty()) {
+				Candidate c = queue.poll();
+				double bound = (best.size() == k) ? best.peek().d2 : max2;
+				if(c.d2 > bound) break;
+				int n = c.node;
+				if(!this.removed[n] && (a < 0 || this.attribute[a][n] >= minimum) && (filter == null || filter.accept(value(n)))) {
+					double dx = this.x[n] - px;
+					double dy = this.y[n] - py;
+					double d2 = dx * dx + dy * dy;
+					if(d2 <= bound) {
+						best.add(new Candidate(n, d2));
+						if(best.size() > k) best.poll();
+						bound = (best.size() == k) ? best.peek().d2 : max2;
+					}
+				}
+				int l = this.left[n];
+				if(l >= 0 && (a < 0 || this.max[a][l] >= minimum)) {
+					double d2 = boxDistance2(l, px, py);
+					if(d2 <= bound) queue.add(new Candidate(l, d2));
+				}
+				int r = this.right[n];
+				if(r >= 0 && (a < 0 || this.max[a][r] >= minimum)) {
+					double d2 = boxDistance2(r, px, py);
+					if(d2 <= bound) queue.add(new Candidate(r, d2));
+				}
+			}
+			Candidate[] sorted = best.toArray(new Candidate[best.size()]);
+			Arrays.sort(sorted, CLOSEST_FIRST);
+			for(Candidate c : sorted) {
+				list.add(value(c.node));
+			}
+			return list;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		this.lock.readLock().lock();
+		try {
+			return this.size;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	public void clear() {
+		this.lock.writeLock().lock();
+		try {
+			int n = 64;
+			this.x = new double[n];
+			this.y = new double[n];
+			this.minx = new double[n];
+			this.miny = new double[n];
+			this.maxx = new double[n];
+			this.maxy = new double[n];
+			this.left = new int[n];
+			this.right = new int[n];
+			this.parent = new int[n];
+			this.attribute = new int[this.attributes][n];
+			this.max = new int[this.attributes][n];
+			this.removed = new boolean[n];
+			this.values = new Object[n];
+			this.index.clear();
+			this.nodes = 0;
+			this.size = 0;
+			this.inserted = 0;
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	// *********
+
+	/**
+	 * @return the node of the point, -1 if none; walks the subtrees whose box holds the location
+	 */
+	private int find(double px, double py, T t) {
+		Integer i = this.index.get(t);
+		if(i != null && !this.removed[i] && this.x[i] == px && this.y[i] == py) return i;
+		if(this.nodes == 0) return -1;
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = 0;
+		while(top > 0) {
+			int node = stack[--top];
+			if(px < this.minx[node] || px > this.maxx[node] || py < this.miny[node] || py > this.maxy[node]) continue;
+			if(!this.removed[node] && this.x[node] == px && this.y[node] == py && t.equals(this.values[node])) return node;
+			if(top + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+			if(this.left[node] >= 0) stack[top++] = this.left[node];
+			if(this.right[node] >= 0) stack[top++] = this.right[node];
+		}
+		return -1;
+	}
+
+	/**
+	 * @return side of a point inserted as node n on a split of the same coordinate at depth, spread over the levels
+	 */
+	private static boolean tie(int n, int depth) {
+		int h = n * 0x9E3779B9 + depth;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return (h & 1) == 0;
+	}
+
+	private int newNode(double px, double py, T t) {
+		if(this.nodes == this.x.length) {
+			int n = this.nodes * 2;
+			this.x = Arrays.copyOf(this.x, n);
+			this.y = Arrays.copyOf(this.y, n);
+			this.minx = Arrays.copyOf(this.minx, n);
+			this.miny = Arrays.copyOf(this.miny, n);
+			this.maxx = Arrays.copyOf(this.maxx, n);
+			this.maxy = Arrays.copyOf(this.maxy, n);
+			this.left = Arrays.copyOf(this.left, n);
+			this.right = Arrays.copyOf(this.right, n);
+			this.parent = Arrays.copyOf(this.parent, n);
+			for(int a = 0; a < this.attributes; a++) {
+				this.attribute[a] = Arrays.copyOf(this.attribute[a], n);
+				this.max[a] = Arrays.copyOf(this.max[a], n);
+			}
+			this.removed = Arrays.copyOf(this.removed, n);
+			this.values = Arrays.copyOf(this.values, n);
+		}
+		int i = this.nodes++;
+		this.x[i] = px;
+		this.y[i] = py;
+		this.minx[i] = px;
+		this.miny[i] = py;
+		this.maxx[i] = px;
+		this.maxy[i] = py;
+		this.left[i] = -1;
+		this.right[i] = -1;
+		this.parent[i] = -1;
+		for(int a = 0; a < this.attributes; a++) {
+			this.attribute[a][i] = 0;
+			this.max[a][i] = 0;
+		}
+		this.removed[i] = false;
+		this.values[i] = t;
+		return i;
+	}
+
+	private void compact() {
+		double[] px = new double[this.size];
+		double[] py = new double[this.size];
+		int[][] attribute = new int[this.attributes][this.size];
+		ArrayList<T> ts = new ArrayList<T>(this.size);
+		for(int n = 0; n < this.nodes; n++) {
+			if(this.removed[n]) continue;
+			int i = ts.size();
+			px[i] = this.x[n];
+			py[i] = this.y[n];
+			for(int a = 0; a < this.attributes; a++) {
+				attribute[a][i] = this.attribute[a][n];
+			}
+			ts.add(value(n));
+		}
+		this.index.clear();
+		this.nodes = 0;
+		this.size = 0;
+		this.inserted = 0;
+		build(px, py, ts);
+		for(int i = 0; i < ts.size(); i++) {
+			int n = this.index.get(ts.get(i));
+			for(int a = 0; a < this.attributes; a++) {
+				this.attribute[a][n] = attribute[a][i];
+				propagate(n, a);
+			}
+		}
+	}
+
+	private void extend(int node, double px, double py) {
+		if(px < this.minx[node]) this.minx[node] = px;
+		if(py < this.miny[node]) this.miny[node] = py;
+		if(px > this.maxx[node]) this.maxx[node] = px;
+		if(py > this.maxy[node]) this.maxy[node] = py;
+	}
+
+	private void propagate(int node, int a) {
+		while(node >= 0) {
+			int m = this.removed[node] ? Integer.MIN_VALUE : this.attribute[a][node];
+			if(this.left[node] >= 0 && this.max[a][this.left[node]] > m) m = this.max[a][this.left[node]];
+			if(this.right[node] >= 0 && this.max[a][this.right[node]] > m) m = this.max[a][this.right[node]];
+			if(this.max[a][node] == m) return;
+			this.max[a][node] = m;
+			node = this.parent[node];
+		}
+	}
+
+	private double boxDistance2(int node, double px, double py) {
+		double dx = (px < this.minx[node]) ? this.minx[node] - px : (px > this.maxx[node]) ? px - this.maxx[node] : 0;
+		double dy = (py < this.miny[node]) ? this.miny[node] - py : (py > this.maxy[node]) ? py - this.maxy[node] : 0;
+		return dx * dx + dy * dy;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T value(int i) {
+		return (T) this.values[i];
+	}
+
+}
@@ -0,0 +1,129 @@
+package org.matsim.contrib.gcs.carsharing.core;
+
+import java.util.ArrayList;
+
+/**
+ * Hierarchical timing wheel with a tick of one second. Level l has 64 slots of 64^l seconds, an entry is kept in
+ * the lowest level that spans its deadline and moves down a level each time the wheel reaches its slot,
+ * so that scheduling and expiring are O(1) amortized. Deadlines beyond the last level wait in an overflow list.
+ *
+ * Entries are not removed before their deadline, the handler has to ignore the ones which are no longer relevant.
+ *
+ * @param <T>
+ */
+public class TimingWheel<T> {
+
+	public interface ExpiryHandler<T> {
+		void expire(T t, long deadline);
+	}
+
+	private static final int BITS = 6;
+	private static final int SLOTS = 1 << BITS;
+	private static final int MASK = SLOTS - 1;
+	private static final int LEVELS = 4;
+
+	private static final class Entry<T> {
+		final long deadline;
+		final T t;
+		Entry(long deadline, T t) {
+			this.deadline = deadline;
+			this.t = t;
+		}
+	}
+
+	private final ArrayList<ArrayList<Entry<T>>> slots;
+	private final ArrayList<Entry<T>> overflow;
+	private long now;
+	private int size;
+
+	public TimingWheel() {
+		this.slots = new ArrayList<ArrayList<Entry<T>>>(LEVELS * SLOTS);
+		for(int i = 0; i < LEVELS * SLOTS; i++) {
+			this.slots.add(new ArrayList<Entry<T>>());
+		}
+		this.overflow = new ArrayList<Entry<T>>();
+		this.clear();
+	}
+
+	/**
+	 *
+	 * @param deadline in seconds, a deadline already passed expires at the next tick
+	 * @param t
+	 */
+	public synchronized void schedule(long deadline, T t) {
+		insert(new Entry<T>(Math.max(deadline, this.now + 1), t));
+		this.size++;
+	}
+
+	/**
+	 * Move the wheel up to time and hand every entry whose deadline is reached to the handler, in deadline order
+	 * @param time
+	 * @param handler
+	 * @return number of expired entries
+	 */
+	public synchronized int advance(long time, ExpiryHandler<? super T> handler) {
+		int expired = 0;
+		if(this.size == 0) {
+			this.now = Math.max(this.now, time);
+			return expired;
+		}
+		while(this.now < time) {
+			this.now++;
+			if((this.now & MASK) == 0) cascade(1);
+			ArrayList<Entry<T>> slot = this.slots.get((int) (this.now & MASK));
+			if(slot.isEmpty()) continue;
+			ArrayList<Entry<T>> due = new ArrayList<Entry<T>>(slot);
+			slot.clear();
+			this.size -= due.size();
+			for(Entry<T> e : due) {
+				handler.expire(e.t, e.deadline);
+				expired++;
+			}
+		}
+		return expired;
+	}
+
+	public synchronized int size() {
+		return this.size;
+	}
+
+	public synchronized void clear() {
+		for(ArrayList<Entry<T>> slot : this.slots) {
+			slot.clear();
+		}
+		this.overflow.clear();
+		this.now = 0;
+		this.size = 0;
+	}
+
+	// *********
+
+	private void insert(Entry<T> e) {
+		long delta = e.deadline - this.now;
+		for(int level = 0; level < LEVELS; level++) {
+			if(delta < (1L << (BITS * (level + 1)))) {
+				int index = (int) ((e.deadline >> (BITS * level)) & MASK);
+				this.slots.get(level * SLOTS + index).add(e);
+				return;
+			}
+		}
+		this.overflow.add(e);
+	}
+
+	private void cascade(int level) {
+		if(level == LEVELS) {
+			ArrayList<Entry<T>> entries = new ArrayList<Entry<T>>(this.overflow);
+			this.overflow.clear();
+			for(Entry<T> e : entries) insert(e);
+			return;
+		}
+		int index = (int) ((this.now >> (BITS * level)) & MASK);
+		if(index == 0) cascade(level + 1);
+		ArrayList<Entry<T>> slot = this.slots.get(level * SLOTS + index);
+		if(slot.isEmpty()) return;
+		ArrayList<Entry<T>> entries = new ArrayList<Entry<T>>(slot);
+		slot.clear();
+		for(Entry<T> e : entries) insert(e);
+	}
+
+}
@@ -1,8 +1,10 @@
 package org.matsim.contrib.gcs.carsharing.impl;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -14,11 +16,13 @@ import org.matsim.api.core.v01.population.Person;
 import org.matsim.contrib.gcs.carsharing.CarsharingManager;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingOperatorMobsim;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingOperators;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingSpatialIndex;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingStationMobsim;
+import org.matsim.contrib.gcs.carsharing.core.KdTree;
+import org.matsim.contrib.gcs.config.CarsharingConfigGroup;
 import org.matsim.contrib.gcs.operation.model.CarsharingOperatorChoiceModel;
 import org.matsim.core.utils.collections.QuadTree;
 
-import com.google.inject.Inject;
 import com.google.inject.Provider;
 
 public class CarsharingOperatorFactory {
@@ -58,24 +62,73 @@ public class CarsharingOperatorFactory {
 		return new CarsharingOperatorImpl(p, maxroadtrainsize, location, decision);
 	}*/
 	
-	public static CarsharingOperators operators(final Network network) {
+	/**
+	 * The container keeps the idle operators indexed by their current location, it is told by each operator 
+	 * when its location or its tasks change, see {@link CarsharingOperatorMobsim.StateListener}.
+	 * @param network
+	 * @param conf
+	 * @return
+	 */
+	public static CarsharingOperators operators(final Network network, final CarsharingConfigGroup conf) {
 		return new CarsharingOperators() {
-			@Inject private QuadTree<CarsharingOperatorMobsim> operatorstree = new QuadTreeFactory<CarsharingOperatorMobsim>(network).get();
+			private final CarsharingSpatialIndex<CarsharingOperatorMobsim> operatorstree = CarsharingSpatialIndexFactory.index(network, conf);
 			private final Map<Id, CarsharingOperatorMobsim> operatorsmap = new HashMap<Id, CarsharingOperatorMobsim>();
+			private final KdTree<CarsharingOperatorMobsim> idletree = new KdTree<CarsharingOperatorMobsim>();
+			private final Map<CarsharingOperatorMobsim, CarsharingStationMobsim> idlemap = new LinkedHashMap<CarsharingOperatorMobsim, CarsharingStationMobsim>();
+			private final Map<CarsharingStationMobsim, List<CarsharingOperatorMobsim>> idlestations = new HashMap<CarsharingStationMobsim, List<CarsharingOperatorMobsim>>();
+			private final CarsharingOperatorMobsim.StateListener tracker = new CarsharingOperatorMobsim.StateListener() {
+				@Override
+				public void stateChanged(CarsharingOperatorMobsim op) {
+					track(op);
+				}
+			};
 			@Override
-			public QuadTree<CarsharingOperatorMobsim> qtree() {
+			public CarsharingSpatialIndex<CarsharingOperatorMobsim> index() {
 				return operatorstree;
 			}
 			@Override
+			@Deprecated
+			public QuadTree<CarsharingOperatorMobsim> qtree() {
+				return CarsharingSpatialIndexFactory.qtree(operatorstree);
+			}
+			@Override
 			public Map<Id, CarsharingOperatorMobsim> map() {
 				return Collections.unmodifiableMap(operatorsmap);
 			}
 			@Override
 			public void add(CarsharingOperatorMobsim operator) {
-				operatorsmap.put(operator.getPerson().getId(), operator);
+				CarsharingOperatorMobsim previous = operatorsmap.put(operator.getPerson().getId(), operator);
+				if(previous != null && previous != operator) {
+					previous.setStateListener(null);
+					track(previous);
+				}
 				Coord coord = operator.getLocation().facility().getCoord();
 				operatorstree.remove(coord.getX(), coord.getY(), operator);
 				operatorstree.put(coord.getX(), coord.getY(), operator);
+				operator.setStateListener(tracker);
+			}
+			@Override
+			public void addAll(List<CarsharingOperatorMobsim> operators) {
+				for(CarsharingOperatorMobsim operator : operators) {
+					CarsharingOperatorMobsim previous = operatorsmap.put(operator.getPerson().getId(), operator);
+					if(previous != null) {
+						Coord coord = previous.getLocation().facility().getCoord();
+						operatorstree.remove(coord.getX(), coord.getY(), previous);
+						previous.setStateListener(null);
+						track(previous);
+					}
+				}
+				double[] x = new double[operators.size()];
+				double[] y = new double[operators.size()];
+				for(int i = 0; i < operators.size(); i++) {
+					Coord coord = operators.get(i).getLocation().facility().getCoord();
+					x[i] = coord.getX();
+					y[i] = coord.getY();
+				}
+				operatorstree.putAll(x, y, operators);
+				for(CarsharingOperatorMobsim operator : operators) {
+					operator.setStateListener(tracker);
+				}
 			}
 			@Override
 			public int size() {
@@ -87,18 +140,54 @@ public class CarsharingOperatorFactory {
 			}
 			@Override
 			public void clear() {
+				for(CarsharingOperatorMobsim operator : operatorsmap.values()) {
+					operator.setStateListener(null);
+				}
 				operatorsmap.clear();
 				operatorstree.clear();
+				synchronized(this) {
+					idletree.clear();
+					idlemap.clear();
+					idlestations.clear();
+				}
+			}
+			@Override
+			public synchronized List<CarsharingOperatorMobsim> availableSet() {
+				return new LinkedList<CarsharingOperatorMobsim>(idlemap.keySet());
+			}
+			@Override
+			public synchronized List<CarsharingOperatorMobsim> availableAt(CarsharingStationMobsim station) {
+				List<CarsharingOperatorMobsim> ops = idlestations.get(station);
+				return (ops == null) ? new ArrayList<CarsharingOperatorMobsim>() : new ArrayList<CarsharingOperatorMobsim>(ops);
 			}
 			@Override
-			public List<CarsharingOperatorMobsim> availableSet() {
-				List<CarsharingOperatorMobsim> ops = new LinkedList<CarsharingOperatorMobsim>();
-				for(CarsharingOperatorMobsim op : operatorsmap.values()) {
-					if(op.available()) {
-						ops.add(op);
+			public List<CarsharingOperatorMobsim> nearestAvailable(CarsharingStationMobsim station, int k, double distance) {
+				Coord coord = station.facility().getCoord();
+				return idletree.nearest(coord.getX(), coord.getY(), k, distance, null);
+			}
+			private synchronized void track(CarsharingOperatorMobsim op) {
+				CarsharingStationMobsim location = (op.available() && operatorsmap.get(op.getPerson().getId()) == op) ? op.getLocation() : null;
+				CarsharingStationMobsim previous = idlemap.get(op);
+				if(previous == location) return;
+				if(previous != null) {
+					Coord coord = previous.facility().getCoord();
+					idletree.remove(coord.getX(), coord.getY(), op);
+					idlemap.remove(op);
+					List<CarsharingOperatorMobsim> ops = idlestations.get(previous);
+					ops.remove(op);
+					if(ops.isEmpty()) idlestations.remove(previous);
+				}
+				if(location != null) {
+					Coord coord = location.facility().getCoord();
+					idletree.put(coord.getX(), coord.getY(), op);
+					idlemap.put(op, location);
+					List<CarsharingOperatorMobsim> ops = idlestations.get(location);
+					if(ops == null) {
+						ops = new ArrayList<CarsharingOperatorMobsim>();
+						idlestations.put(location, ops);
 					}
+					ops.add(op);
 				}
-				return ops;
 			}
 		};
 	}
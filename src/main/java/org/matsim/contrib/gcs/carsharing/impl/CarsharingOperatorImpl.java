@@ -25,6 +25,7 @@ public class CarsharingOperatorImpl implements CarsharingOperatorMobsim {
 	private ArrayList<CarsharingRelocationTask> tasks;
 	private CarsharingVehicleMobsim vehicle;
 	private int index;
+	private volatile StateListener listener = null;
 
 	public CarsharingOperatorImpl(Person person) {
 		this.person = person;
@@ -55,6 +56,7 @@ public class CarsharingOperatorImpl implements CarsharingOperatorMobsim {
 		this.vehicle = null;
 		this.index = 0;
 		this.location = this.initialLocation;
+		this.stateChanged();
 	}
 
 	@Override
@@ -65,6 +67,7 @@ public class CarsharingOperatorImpl implements CarsharingOperatorMobsim {
 	@Override
 	public void setLocation(CarsharingStationMobsim location) {
 		this.location = location;
+		this.stateChanged();
 	}
 	
 	@Override
@@ -83,6 +86,7 @@ public class CarsharingOperatorImpl implements CarsharingOperatorMobsim {
 	public CarsharingRelocationTask endTask() {
 		CarsharingRelocationTask r = this.getTask();
 		if(r != null) index++;
+		this.stateChanged();
 		return r;
 	}
 
@@ -94,6 +98,7 @@ public class CarsharingOperatorImpl implements CarsharingOperatorMobsim {
 	@Override
 	public void addTask(CarsharingRelocationTask task) {
 		this.tasks.add(task);
+		this.stateChanged();
 	}
 
 	@Override
@@ -114,6 +119,7 @@ public class CarsharingOperatorImpl implements CarsharingOperatorMobsim {
 	@Override
 	public void addManyTasks(Collection<CarsharingRelocationTask> tasks) {
 		this.tasks.addAll(tasks);
+		this.stateChanged();
 	}
 	
 	@Override
@@ -125,5 +131,16 @@ public class CarsharingOperatorImpl implements CarsharingOperatorMobsim {
 	public void setMaxTrainSize(int ts) {
 		this.trainSize = ts;
 	}
+	
+	@Override
+	public void setStateListener(StateListener l) {
+		this.listener = l;
+		this.stateChanged();
+	}
+	
+	private void stateChanged() {
+		StateListener l = this.listener;
+		if(l != null) l.stateChanged(this);
+	}
 
 }
@@ -0,0 +1,44 @@
+package org.matsim.contrib.gcs.carsharing.impl;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingSpatialIndex;
+import org.matsim.contrib.gcs.config.CarsharingConfigGroup;
+import org.matsim.core.utils.collections.QuadTree;
+
+public class CarsharingSpatialIndexFactory {
+
+	public static final String QUADTREE = "quadtree";
+	public static final String GRID = "grid";
+
+	/**
+	 *
+	 * @param network bounds of the quadtree
+	 * @param conf
+	 * @return the index selected by {@link CarsharingConfigGroup#getSpatialIndex()}, a grid has a cell size of one search distance
+	 */
+	public static <T> CarsharingSpatialIndex<T> index(Network network, CarsharingConfigGroup conf) {
+		return index(conf.getSpatialIndex(), network, conf.getSearchDistance());
+	}
+
+	public static <T> CarsharingSpatialIndex<T> index(String type, Network network, double cellSize) {
+		if(type.equals(QUADTREE)) {
+			return new QuadTreeSpatialIndex<T>(new QuadTreeFactory<T>(network).get());
+		} else if(type.equals(GRID)) {
+			return new GridSpatialIndex<T>(cellSize);
+		}
+		throw new RuntimeException("Unknown spatial index " + type + ", expected " + QUADTREE + " or " + GRID);
+	}
+
+	/**
+	 *
+	 * @param index
+	 * @return the quadtree behind the index
+	 */
+	public static <T> QuadTree<T> qtree(CarsharingSpatialIndex<T> index) {
+		if(index instanceof QuadTreeSpatialIndex) {
+			return ((QuadTreeSpatialIndex<T>) index).qtree();
+		}
+		throw new RuntimeException("The spatial index is not a " + QUADTREE + ", use index()");
+	}
+
+}
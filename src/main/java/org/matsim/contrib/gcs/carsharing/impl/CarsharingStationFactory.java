@@ -4,6 +4,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -14,11 +15,14 @@ import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingSpatialIndex;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingStation;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingStationMobsim;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingStationPowerController;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingStations;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingVehicle;
+import org.matsim.contrib.gcs.carsharing.core.KdTree;
+import org.matsim.contrib.gcs.config.CarsharingConfigGroup;
 import org.matsim.contrib.gcs.operation.model.CarsharingParkingModel;
 import org.matsim.contrib.gcs.router.CarsharingRouterUtils;
 import org.matsim.contrib.gcs.utils.CarsharingUtils;
@@ -30,8 +34,6 @@ import org.matsim.facilities.ActivityOption;
 import org.matsim.facilities.OpeningTimeImpl;
 import org.matsim.vehicles.Vehicle;
 
-import com.google.inject.Inject;
-
 public class CarsharingStationFactory {
 
 	public static CarsharingStationBuilder stationBuilder(Scenario scenario, String id, Coord coord) {
@@ -54,16 +56,26 @@ public class CarsharingStationFactory {
 		return station;
 	}
 	
-	public static CarsharingStations stations(final Network network) {
+	public static CarsharingStations stations(final Network network, final CarsharingConfigGroup conf) {
 		
 		return new CarsharingStations() {
-			@Inject private QuadTree<CarsharingStationMobsim> stationstree = new QuadTreeFactory<CarsharingStationMobsim>(network).get();
+			private final CarsharingSpatialIndex<CarsharingStationMobsim> stationstree = CarsharingSpatialIndexFactory.index(network, conf);
+			private final KdTree<CarsharingStationMobsim> stationskdtree = new KdTree<CarsharingStationMobsim>(2);
 			private final Map<Id, CarsharingStationMobsim> stationsmap = new HashMap<Id, CarsharingStationMobsim>();
 			@Override
-			public QuadTree<CarsharingStationMobsim> qtree() {
+			public CarsharingSpatialIndex<CarsharingStationMobsim> index() {
 				return stationstree;
 			}
 			@Override
+			@Deprecated
+			public QuadTree<CarsharingStationMobsim> qtree() {
+				return CarsharingSpatialIndexFactory.qtree(stationstree);
+			}
+			@Override
+			public KdTree<CarsharingStationMobsim> kdtree() {
+				return stationskdtree;
+			}
+			@Override
 			public Map<Id, CarsharingStationMobsim> map() {
 				return Collections.unmodifiableMap(stationsmap);
 			}
@@ -72,11 +84,28 @@ public class CarsharingStationFactory {
 				if(!stationsmap.containsKey(station.facility().getId())) {
 					stationsmap.put(station.facility().getId(), station);
 					stationstree.put(station.facility().getCoord().getX(), station.facility().getCoord().getY(), station);
+					stationskdtree.put(station.facility().getCoord().getX(), station.facility().getCoord().getY(), station);
 				} else {
 					throw new RuntimeException("station with id " + station.facility().getId() + " already exist!");
 				}
 			}
 			@Override
+			public void addAll(List<CarsharingStationMobsim> stations) {
+				double[] x = new double[stations.size()];
+				double[] y = new double[stations.size()];
+				for(int i = 0; i < stations.size(); i++) {
+					CarsharingStationMobsim station = stations.get(i);
+					if(stationsmap.containsKey(station.facility().getId())) {
+						throw new RuntimeException("station with id " + station.facility().getId() + " already exist!");
+					}
+					stationsmap.put(station.facility().getId(), station);
+					x[i] = station.facility().getCoord().getX();
+					y[i] = station.facility().getCoord().getY();
+				}
+				stationstree.putAll(x, y, stations);
+				stationskdtree.putAll(x, y, stations);
+			}
+			@Override
 			public int size() {
 				return stationsmap.size();
 			}
@@ -87,6 +116,7 @@ public class CarsharingStationFactory {
 			@Override
 			public void clear() {
 				stationstree.clear();
+				stationskdtree.clear();
 				stationsmap.clear();
 			}
 		};
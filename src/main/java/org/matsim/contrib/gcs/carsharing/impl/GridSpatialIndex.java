@@ -0,0 +1,207 @@
+package org.matsim.contrib.gcs.carsharing.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.matsim.contrib.gcs.carsharing.core.CarsharingSpatialIndex;
+
+/**
+ * {@link CarsharingSpatialIndex} on a uniform grid of square cells. With a cell size equal to the search distance,
+ * a disk query reads at most 3x3 cells. Unlike the quadtree the grid is not bounded by the network,
+ * only the cells holding an element are allocated.
+ *
+ * Queries can run concurrently, updates are exclusive.
+ *
+ * @param <T>
+ */
+public class GridSpatialIndex<T> implements CarsharingSpatialIndex<T> {
+
+	private static final class Item<T> {
+		final double x;
+		final double y;
+		final T t;
+		Item(double x, double y, T t) {
+			this.x = x;
+			this.y = y;
+			this.t = t;
+		}
+	}
+
+	private final double cellSize;
+	private final Map<Long, ArrayList<Item<T>>> cells;
+	private final ReentrantReadWriteLock lock;
+	private long mincx, mincy, maxcx, maxcy;
+	private int size;
+
+	public GridSpatialIndex(double cellSize) {
+		if(!(cellSize > 0)) throw new RuntimeException("Grid cell size must be positive: " + cellSize);
+		this.cellSize = cellSize;
+		this.cells = new HashMap<Long, ArrayList<Item<T>>>();
+		this.lock = new ReentrantReadWriteLock();
+		this.clear();
+	}
+
+	@Override
+	public void put(double x, double y, T t) {
+		this.lock.writeLock().lock();
+		try {
+			insert(x, y, t);
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void putAll(double[] x, double[] y, List<? extends T> ts) {
+		this.lock.writeLock().lock();
+		try {
+			for(int i = 0; i < ts.size(); i++) {
+				insert(x[i], y[i], ts.get(i));
+			}
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	private void insert(double x, double y, T t) {
+		long cx = cell(x);
+		long cy = cell(y);
+		Long k = key(cx, cy);
+		ArrayList<Item<T>> items = this.cells.get(k);
+		if(items == null) {
+			items = new ArrayList<Item<T>>(4);
+			this.cells.put(k, items);
+		}
+		items.add(new Item<T>(x, y, t));
+		this.mincx = Math.min(this.mincx, cx);
+		this.mincy = Math.min(this.mincy, cy);
+		this.maxcx = Math.max(this.maxcx, cx);
+		this.maxcy = Math.max(this.maxcy, cy);
+		this.size++;
+	}
+
+	@Override
+	public boolean remove(double x, double y, T t) {
+		this.lock.writeLock().lock();
+		try {
+			Long k = key(cell(x), cell(y));
+			ArrayList<Item<T>> items = this.cells.get(k);
+			if(items == null) return false;
+			for(int i = 0; i < items.size(); i++) {
+				Item<T> item = items.get(i);
+				if(item.x == x && item.y == y && item.t.equals(t)) {
+					items.remove(i);
+					if(items.isEmpty()) this.cells.remove(k);
+					this.size--;
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public Collection<T> getDisk(double x, double y, double distance) {
+		ArrayList<T> list = new ArrayList<T>();
+		double d2 = distance * distance;
+		this.lock.readLock().lock();
+		try {
+			long fromx = Math.max(this.mincx, cell(x - distance)), tox = Math.min(this.maxcx, cell(x + distance));
+			long fromy = Math.max(this.mincy, cell(y - distance)), toy = Math.min(this.maxcy, cell(y + distance));
+			for(long cx = fromx; cx <= tox; cx++) {
+				for(long cy = fromy; cy <= toy; cy++) {
+					ArrayList<Item<T>> items = this.cells.get(key(cx, cy));
+					if(items == null) continue;
+					for(Item<T> item : items) {
+						double dx = item.x - x;
+						double dy = item.y - y;
+						if(dx * dx + dy * dy <= d2) list.add(item.t);
+					}
+				}
+			}
+		} finally {
+			this.lock.readLock().unlock();
+		}
+		return list;
+	}
+
+	@Override
+	public T getClosest(double x, double y) {
+		this.lock.readLock().lock();
+		try {
+			if(this.size == 0) return null;
+			long cx = cell(x);
+			long cy = cell(y);
+			long rings = Math.max(Math.max(Math.abs(cx - this.mincx), Math.abs(cx - this.maxcx)),
+					Math.max(Math.abs(cy - this.mincy), Math.abs(cy - this.maxcy)));
+			T best = null;
+			double best2 = Double.POSITIVE_INFINITY;
+			for(long r = 0; r <= rings; r++) {
+				// the cells of ring r are at least (r - 1) cells away from (x, y)
+				double reach = (r - 1) * this.cellSize;
+				if(best != null && r > 0 && best2 <= reach * reach) break;
+				for(long i = cx - r; i <= cx + r; i++) {
+					for(long j = cy - r; j <= cy + r; j++) {
+						if(Math.abs(i - cx) != r && Math.abs(j - cy) != r) continue;
+						ArrayList<Item<T>> items = this.cells.get(key(i, j));
+						if(items == null) continue;
+						for(Item<T> item : items) {
+							double dx = item.x - x;
+							double dy = item.y - y;
+							double d2 = dx * dx + dy * dy;
+							if(d2 < best2) {
+								best2 = d2;
+								best = item.t;
+							}
+						}
+					}
+				}
+			}
+			return best;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		this.lock.readLock().lock();
+		try {
+			return this.size;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void clear() {
+		this.lock.writeLock().lock();
+		try {
+			this.cells.clear();
+			this.mincx = Long.MAX_VALUE;
+			this.mincy = Long.MAX_VALUE;
+			this.maxcx = Long.MIN_VALUE;
+			this.maxcy = Long.MIN_VALUE;
+			this.size = 0;
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	// *********
+
+	private long cell(double v) {
+		return (long) Math.floor(v / this.cellSize);
+	}
+
+	private static Long key(long cx, long cy) {
+		return (cx << 32) ^ (cy & 0xffffffffL);
+	}
+
+}
@@ -1,5 +1,8 @@
 package org.matsim.contrib.gcs.carsharing.impl;
 
+import java.util.Map;
+import java.util.WeakHashMap;
+
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.core.utils.collections.QuadTree;
@@ -11,6 +14,9 @@ public class QuadTreeFactory<T> implements Provider<QuadTree<T>> {
 
 	@Inject private Network network;
 	
+	// extent of the links of each network, the networks are not modified once loaded
+	private static final Map<Network, double[]> extents = new WeakHashMap<Network, double[]>();
+	
 	public QuadTreeFactory(final Network network) {
 		this.network = network;
 	}
@@ -25,6 +31,27 @@ public class QuadTreeFactory<T> implements Provider<QuadTree<T>> {
 	
 	@Override
 	public QuadTree<T> get() {
+		double[] e = extent(this.network);
+		return new QuadTree<T>(e[0], e[1], e[2], e[3]);
+	}
+	
+	/**
+	 * 
+	 * @param network
+	 * @return minx, miny, maxx, maxy of the links with a margin of 1, computed once per network
+	 */
+	public static double[] extent(Network network) {
+		synchronized(extents) {
+			double[] e = extents.get(network);
+			if(e == null) {
+				e = computeExtent(network);
+				extents.put(network, e);
+			}
+			return e;
+		}
+	}
+	
+	private static double[] computeExtent(Network network) {
 		double minx = (1.0D / 0.0D);
 	    double miny = (1.0D / 0.0D);
 	    double maxx = (-1.0D / 0.0D);
@@ -38,7 +65,7 @@ public class QuadTreeFactory<T> implements Provider<QuadTree<T>> {
   	    }
   	    minx -= 1.0D; miny -= 1.0D; maxx += 1.0D; maxy += 1.0D;
 		
-		return new QuadTree<T>(minx, miny, maxx, maxy);
+		return new double[] { minx, miny, maxx, maxy };
 	}
 
 }
@@ -0,0 +1,63 @@
+package org.matsim.contrib.gcs.carsharing.impl;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.matsim.contrib.gcs.carsharing.core.CarsharingSpatialIndex;
+import org.matsim.core.utils.collections.QuadTree;
+
+/**
+ * {@link CarsharingSpatialIndex} on a MATSim {@link QuadTree} spanning the network
+ *
+ * @param <T>
+ */
+public class QuadTreeSpatialIndex<T> implements CarsharingSpatialIndex<T> {
+
+	private final QuadTree<T> qt;
+
+	public QuadTreeSpatialIndex(QuadTree<T> qt) {
+		this.qt = qt;
+	}
+
+	public QuadTree<T> qtree() {
+		return this.qt;
+	}
+
+	@Override
+	public void put(double x, double y, T t) {
+		this.qt.put(x, y, t);
+	}
+
+	@Override
+	public void putAll(double[] x, double[] y, List<? extends T> ts) {
+		for(int i = 0; i < ts.size(); i++) {
+			this.qt.put(x[i], y[i], ts.get(i));
+		}
+	}
+
+	@Override
+	public boolean remove(double x, double y, T t) {
+		return this.qt.remove(x, y, t);
+	}
+
+	@Override
+	public Collection<T> getDisk(double x, double y, double distance) {
+		return this.qt.getDisk(x, y, distance);
+	}
+
+	@Override
+	public T getClosest(double x, double y) {
+		return (this.qt.size() == 0) ? null : this.qt.getClosest(x, y);
+	}
+
+	@Override
+	public int size() {
+		return this.qt.size();
+	}
+
+	@Override
+	public void clear() {
+		this.qt.clear();
+	}
+
+}
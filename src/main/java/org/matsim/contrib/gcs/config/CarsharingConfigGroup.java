@@ -30,6 +30,21 @@ public class CarsharingConfigGroup extends ConfigGroup {
 	
 	public static final String interactionOffset_str = "interactionOffset";
 	public static final String searchDistance_str = "searchDistance";
+	public static final String stationCandidates_str = "stationCandidates";
+	public static final String availabilityAwareSearch_str = "availabilityAwareSearch";
+	public static final String walkCatchments_str = "walkCatchments";
+	public static final String travelTimeMatrix_str = "travelTimeMatrix";
+	public static final String travelTimeMatrixBin_str = "travelTimeMatrixBin";
+	public static final String travelTimeMatrixMaxStations_str = "travelTimeMatrixMaxStations";
+	public static final String landmarks_str = "landmarks";
+	public static final String routeCacheSize_str = "routeCacheSize";
+	public static final String routeCacheBin_str = "routeCacheBin";
+	public static final String spatialIndex_str = "spatialIndex";
+	public static final String speculativeOffers_str = "speculativeOffers";
+	public static final String batchBooking_str = "batchBooking";
+	public static final String floatingStations_str = "floatingStations";
+	public static final String speculativeOffersLeadTime_str = "speculativeOffersLeadTime";
+	public static final String reservationHoldTime_str = "reservationHoldTime";
 	public static final String activateModule_str = "activateModule";
 	public static final String scenarioInputFile_str = "scenarioInputFile";
 	
@@ -38,6 +53,7 @@ public class CarsharingConfigGroup extends ConfigGroup {
 	public static final String chargingLogFile_str = "chargingLogFile";
 	public static final String relocationLogFile_str = "relocationLogFile";
 	public static final String bookingLogFile_str = "bookingLogFile";
+	public static final String routeCacheLogFile_str = "routeCacheLogFile";
 	
 	
 	public static final String logDir_str = "logDir";
@@ -147,6 +163,218 @@ public class CarsharingConfigGroup extends ConfigGroup {
 		attributes.put(searchDistance_str, value);
 	}
 
+	/**
+	 * number of nearest stations within the search distance offered at departure and at arrival, 1 by default
+	 */
+	@StringGetter( stationCandidates_str )
+	public Integer getStationCandidates() {
+		Integer value = (Integer)attributes.get(stationCandidates_str);
+		return (value == null) ? 1 : value;
+	}
+
+	@StringSetter( stationCandidates_str )
+	public void setStationCandidates(Integer value) {
+		attributes.put(stationCandidates_str, value);
+	}
+
+	/**
+	 * spatial index of the stations and operators, "quadtree" (default) or "grid" with a cell size of one search distance
+	 */
+	@StringGetter( spatialIndex_str )
+	public String getSpatialIndex() {
+		String value = (String)attributes.get(spatialIndex_str);
+		return (value == null) ? "quadtree" : value;
+	}
+
+	@StringSetter( spatialIndex_str )
+	public void setSpatialIndex(String value) {
+		attributes.put(spatialIndex_str, value);
+	}
+
+	/**
+	 * search the nearest stations with enough vehicles at departure and enough parking slots at arrival, 
+	 * rather than the nearest stations, true by default
+	 */
+	@StringGetter( availabilityAwareSearch_str )
+	public boolean isAvailabilityAwareSearch() {
+		Boolean value = (Boolean)attributes.get(availabilityAwareSearch_str);
+		return value == null || value;
+	}
+
+	@StringSetter( availabilityAwareSearch_str )
+	public void setAvailabilityAwareSearch(Boolean value) {
+		attributes.put(availabilityAwareSearch_str, value);
+	}
+
+	/**
+	 * opt-in, search the stations by walk distance over the network, from catchments computed at setup, rather than by beeline
+	 */
+	@StringGetter( walkCatchments_str )
+	public boolean isWalkCatchments() {
+		Boolean value = (Boolean)attributes.get(walkCatchments_str);
+		return value != null && value;
+	}
+
+	@StringSetter( walkCatchments_str )
+	public void setWalkCatchments(Boolean value) {
+		attributes.put(walkCatchments_str, value);
+	}
+
+	/**
+	 * opt-in, compute the station to station drive times and distances when an iteration starts and refresh them 
+	 * during the simulation, used by the offers and the relocation instead of searching
+	 */
+	@StringGetter( travelTimeMatrix_str )
+	public boolean isTravelTimeMatrix() {
+		Boolean value = (Boolean)attributes.get(travelTimeMatrix_str);
+		return value != null && value;
+	}
+
+	@StringSetter( travelTimeMatrix_str )
+	public void setTravelTimeMatrix(Boolean value) {
+		attributes.put(travelTimeMatrix_str, value);
+	}
+
+	/**
+	 * seconds between two refreshes of the station travel time matrix during the simulation, 3600 by default
+	 */
+	@StringGetter( travelTimeMatrixBin_str )
+	public Integer getTravelTimeMatrixBin() {
+		Integer value = (Integer)attributes.get(travelTimeMatrixBin_str);
+		return (value == null) ? 3600 : value;
+	}
+
+	@StringSetter( travelTimeMatrixBin_str )
+	public void setTravelTimeMatrixBin(Integer value) {
+		attributes.put(travelTimeMatrixBin_str, value);
+	}
+
+	/**
+	 * the station travel time matrix is not built above this number of stations, 2000 by default (32MB)
+	 */
+	@StringGetter( travelTimeMatrixMaxStations_str )
+	public Integer getTravelTimeMatrixMaxStations() {
+		Integer value = (Integer)attributes.get(travelTimeMatrixMaxStations_str);
+		return (value == null) ? 2000 : value;
+	}
+
+	@StringSetter( travelTimeMatrixMaxStations_str )
+	public void setTravelTimeMatrixMaxStations(Integer value) {
+		attributes.put(travelTimeMatrixMaxStations_str, value);
+	}
+
+	/**
+	 * number of landmarks of the cs_drive router, 0 by default: drives are routed by the trip router
+	 */
+	@StringGetter( landmarks_str )
+	public Integer getLandmarks() {
+		Integer value = (Integer)attributes.get(landmarks_str);
+		return (value == null) ? 0 : value;
+	}
+
+	@StringSetter( landmarks_str )
+	public void setLandmarks(Integer value) {
+		attributes.put(landmarks_str, value);
+	}
+
+	/**
+	 * maximum number of cached drives, 0 by default: drives are not cached
+	 */
+	@StringGetter( routeCacheSize_str )
+	public Integer getRouteCacheSize() {
+		Integer value = (Integer)attributes.get(routeCacheSize_str);
+		return (value == null) ? 0 : value;
+	}
+
+	@StringSetter( routeCacheSize_str )
+	public void setRouteCacheSize(Integer value) {
+		attributes.put(routeCacheSize_str, value);
+	}
+
+	/**
+	 * seconds per departure time bin of the cached drives, 900 by default
+	 */
+	@StringGetter( routeCacheBin_str )
+	public Integer getRouteCacheBin() {
+		Integer value = (Integer)attributes.get(routeCacheBin_str);
+		return (value == null) ? 900 : value;
+	}
+
+	@StringSetter( routeCacheBin_str )
+	public void setRouteCacheBin(Integer value) {
+		attributes.put(routeCacheBin_str, value);
+	}
+
+	/**
+	 * opt-in, compute the offers of a carsharing leg on a worker pool before the end of the previous activity
+	 */
+	@StringGetter( speculativeOffers_str )
+	public boolean isSpeculativeOffers() {
+		Boolean value = (Boolean)attributes.get(speculativeOffers_str);
+		return value != null && value;
+	}
+
+	@StringSetter( speculativeOffers_str )
+	public void setSpeculativeOffers(Boolean value) {
+		attributes.put(speculativeOffers_str, value);
+	}
+	
+	/**
+	 * opt-in, book the carsharing legs departing in the same second together, see CarsharingBookingManager.processBatch
+	 */
+	@StringGetter( batchBooking_str )
+	public boolean isBatchBooking() {
+		Boolean value = (Boolean)attributes.get(batchBooking_str);
+		return value != null && value;
+	}
+
+	@StringSetter( batchBooking_str )
+	public void setBatchBooking(Boolean value) {
+		attributes.put(batchBooking_str, value);
+	}
+	
+	/**
+	 * opt-in, offer to drop the vehicles at the free floating spot nearest to the destination
+	 */
+	@StringGetter( floatingStations_str )
+	public boolean isFloatingStations() {
+		Boolean value = (Boolean)attributes.get(floatingStations_str);
+		return value != null && value;
+	}
+
+	@StringSetter( floatingStations_str )
+	public void setFloatingStations(Boolean value) {
+		attributes.put(floatingStations_str, value);
+	}
+	
+	/**
+	 * seconds before the activity end at which speculative offers are computed, 300 by default
+	 */
+	@StringGetter( speculativeOffersLeadTime_str )
+	public Integer getSpeculativeOffersLeadTime() {
+		Integer value = (Integer)attributes.get(speculativeOffersLeadTime_str);
+		return (value == null) ? 300 : value;
+	}
+
+	@StringSetter( speculativeOffersLeadTime_str )
+	public void setSpeculativeOffersLeadTime(Integer value) {
+		attributes.put(speculativeOffersLeadTime_str, value);
+	}
+
+	/**
+	 * seconds a reservation is held after the planned pickup or dropoff time before it expires, 0 (default) to hold it forever
+	 */
+	@StringGetter( reservationHoldTime_str )
+	public Integer getReservationHoldTime() {
+		Integer value = (Integer)attributes.get(reservationHoldTime_str);
+		return (value == null) ? 0 : value;
+	}
+
+	@StringSetter( reservationHoldTime_str )
+	public void setReservationHoldTime(Integer value) {
+		attributes.put(reservationHoldTime_str, value);
+	}
+
 	@StringGetter( constantRate_str )
 	public Double getConstantRate() {
 		return (Double)attributes.get(constantRate_str);
@@ -207,5 +435,15 @@ public class CarsharingConfigGroup extends ConfigGroup {
 		attributes.put(bookingLogFile_str, value);
 	}
 	
+	@StringGetter( routeCacheLogFile_str )
+	public String getRouteCacheLogFile() {
+		return (String)attributes.get(routeCacheLogFile_str);
+	}
+
+	@StringSetter( routeCacheLogFile_str )
+	public void setRouteCacheLogFile(String value) {
+		attributes.put(routeCacheLogFile_str, value);
+	}
+	
 
 }
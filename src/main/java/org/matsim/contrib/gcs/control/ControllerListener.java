@@ -9,10 +9,12 @@ import org.matsim.contrib.gcs.carsharing.CarsharingScenarioWriter;
 import org.matsim.core.controler.events.IterationEndsEvent;
 import org.matsim.core.controler.events.IterationStartsEvent;
 import org.matsim.core.controler.events.ScoringEvent;
+import org.matsim.core.controler.events.ShutdownEvent;
 import org.matsim.core.controler.events.StartupEvent;
 import org.matsim.core.controler.listener.IterationEndsListener;
 import org.matsim.core.controler.listener.IterationStartsListener;
 import org.matsim.core.controler.listener.ScoringListener;
+import org.matsim.core.controler.listener.ShutdownListener;
 import org.matsim.core.controler.listener.StartupListener;
 import org.matsim.core.utils.io.IOUtils;
 import org.matsim.withinday.mobsim.MobsimDataProvider;
@@ -21,7 +23,7 @@ import org.matsim.withinday.trafficmonitoring.TravelTimeCollector;
 import com.google.inject.Inject;
 
 public class ControllerListener
-		implements StartupListener, IterationEndsListener, IterationStartsListener, ScoringListener {
+		implements StartupListener, IterationEndsListener, IterationStartsListener, ScoringListener, ShutdownListener {
 
 	// MATSIM
 	@Inject protected Scenario sc;
@@ -61,4 +63,9 @@ public class ControllerListener
 	public void notifyScoring(ScoringEvent event) {
 		
 	}
+
+	@Override
+	public void notifyShutdown(ShutdownEvent event) {
+		this.m.shutdown();
+	}
 }
@@ -0,0 +1,185 @@
+package org.matsim.contrib.gcs.examples;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.gcs.carsharing.CarsharingManager;
+import org.matsim.contrib.gcs.carsharing.CarsharingScenario;
+import org.matsim.contrib.gcs.carsharing.CarsharingScenarioReader;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingAgent;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingBookingManager;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingBookingRecord;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingBookingStation;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingDemand;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingOffer;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingStation;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingStationMobsim;
+import org.matsim.contrib.gcs.carsharing.impl.CarsharingStationFactory;
+import org.matsim.contrib.gcs.events.CarsharingBookingEvent;
+import org.matsim.contrib.gcs.operation.impl.CarsharingParkingModelImpl;
+import org.matsim.contrib.gcs.operation.model.CarsharingOfferModel;
+import org.matsim.contrib.gcs.router.CarsharingRouterUtils.RouteData;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+
+/**
+ * Booking throughput of concurrent threads on random station pairs of a carsharing scenario, through
+ * {@link CarsharingBookingManager#process}: with one monitor around the call, as the manager was synchronized before,
+ * and as shipped, on the lock-free station counters. Each booking is registered in the timelines of both stations and
+ * its booking event is built, it is then cancelled so that the availability stays the same during the run.
+ * The offers come from a stub offer model, one standard offer between the stations of the demand, no search nor routing.
+ *
+ * Usage: CarsharingBookingContentionBenchmark config.xml [threads] [bookings per thread]
+ */
+public class CarsharingBookingContentionBenchmark {
+
+	private static Logger logger = Logger.getLogger(CarsharingBookingContentionBenchmark.class);
+
+	private static final String GLOBAL = "GLOBAL";
+	private static final String SHIPPED = "SHIPPED";
+
+	/**
+	 * Demand between two given stations, read by the stub offer model
+	 */
+	private static class StationDemand extends CarsharingDemand {
+		final CarsharingStationMobsim o;
+		final CarsharingStationMobsim d;
+		StationDemand(CarsharingAgent agent, Activity origin, Activity destination, CarsharingStationMobsim o, CarsharingStationMobsim d) {
+			super(PopulationUtils.createLeg("BENCHMARK"), agent, origin, destination, 1);
+			this.o = o;
+			this.d = d;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		final Config config = ConfigUtils.loadConfig(args[0]);
+		final int nthreads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		final int nbookings = (args.length > 2) ? Integer.parseInt(args[2]) : 100000;
+		final Scenario scenario = ScenarioUtils.loadScenario(config);
+		final CarsharingScenario carsharing = new CarsharingScenario(scenario, null);
+		new CarsharingScenarioReader(carsharing, scenario).readXml(carsharing.getConfig().getCarsharingScenarioInputFile());
+
+		final CarsharingManager m = new CarsharingManager(carsharing, null);
+		final List<CarsharingStationMobsim> stations = new ArrayList<CarsharingStationMobsim>();
+		for(CarsharingStation s : carsharing.getStations().values()) {
+			stations.add(CarsharingStationFactory.
+					stationMobsimBuilder(s).
+					setParkingModel(new CarsharingParkingModelImpl()).
+					build(scenario));
+		}
+		if(stations.size() < 2) {
+			throw new RuntimeException("at least two stations are needed");
+		}
+		m.getStations().addAll(stations);
+		final CarsharingBookingManager booking = new CarsharingBookingManager(m, new CarsharingOfferModel() {
+			@Override
+			public double computeRentalCost(CarsharingOffer offer, double rentalduration) {
+				return 0;
+			}
+			@Override
+			public ArrayList<CarsharingOffer> computeRentalOffers(int time, CarsharingDemand demand) {
+				StationDemand sd = (StationDemand) demand;
+				RouteData rd = new RouteData();
+				rd.time = 900;
+				rd.distance = 5000;
+				CarsharingOffer.Builder builder = CarsharingOffer.Builder.newInstanceFromAgent(demand.getAgent(), demand);
+				builder.setAccess(time, sd.o, 0, 0, CarsharingOffer.SUCCESS_STANDARDOFFER);
+				builder.setDrive(demand.getNbrOfVeh(), rd);
+				builder.setEgress(sd.d, 0, 0, CarsharingOffer.SUCCESS_STANDARDOFFER);
+				ArrayList<CarsharingOffer> offers = new ArrayList<CarsharingOffer>();
+				offers.add(builder.build());
+				return offers;
+			}
+		});
+		logger.info("stations: " + stations.size() + " | threads: " + nthreads + " | bookings: " + nbookings + "/thread");
+
+		for(String mode : new String[] { GLOBAL, SHIPPED, GLOBAL, SHIPPED }) { // first round is the warm up
+			run(mode, m, booking, stations, nthreads, nbookings);
+		}
+	}
+
+	private static void run(final String mode, final CarsharingManager m, final CarsharingBookingManager booking,
+			final List<CarsharingStationMobsim> stations, int nthreads, final int nbookings) throws InterruptedException {
+		// fresh booking state, with half of the slots of each station taken by vehicles
+		booking.reset(0);
+		for(CarsharingStationMobsim s : stations) {
+			CarsharingBookingStation b = booking.track(s);
+			int fleet = s.getCapacity() / 2;
+			if(b.reserveParking(fleet)) b.releaseVehicle(fleet);
+		}
+		final Object monitor = new Object();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(nthreads);
+		final AtomicLong booked = new AtomicLong();
+		for(int t = 0; t < nthreads; t++) {
+			final Random random = new Random(4711 + t);
+			final String id = "benchmark-" + t;
+			final CarsharingAgent agent = new CarsharingAgent() {
+				@Override
+				public String getId() { return id; }
+				@Override
+				public Person getPerson() { return null; }
+				@Override
+				public void reset(int iteration) { }
+			};
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						long ok = 0;
+						for(int q = 0; q < nbookings; q++) {
+							CarsharingStationMobsim o = stations.get(random.nextInt(stations.size()));
+							CarsharingStationMobsim d = o;
+							while(d == o) d = stations.get(random.nextInt(stations.size()));
+							int time = random.nextInt(24 * 3600);
+							Activity origin = PopulationUtils.createActivityFromCoordAndLinkId("STATION", o.facility().getCoord(), o.facility().getLinkId());
+							origin.setEndTime(time);
+							Activity destination = PopulationUtils.createActivityFromCoordAndLinkId("STATION", d.facility().getCoord(), d.facility().getLinkId());
+							destination.setStartTime(time + 900);
+							CarsharingDemand demand = new StationDemand(agent, origin, destination, o, d);
+							ArrayList<CarsharingOffer> offers = booking.offer().computeRentalOffers(time, demand);
+							CarsharingBookingRecord br;
+							if(mode == GLOBAL) {
+								synchronized(monitor) {
+									br = booking.process(time, demand, offers.get(0), offers);
+								}
+							} else {
+								br = booking.process(time, demand, offers.get(0), offers);
+							}
+							new CarsharingBookingEvent(time, m.getScenario(), m, demand, br); // built as by the agent, not thrown
+							if(!br.bookingFailed()) {
+								booking.track(o).cancel(br);
+								booking.track(d).cancel(br);
+								ok++;
+							}
+						}
+						booked.addAndGet(ok);
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "booking-" + t).start();
+		}
+		long t0 = System.nanoTime();
+		start.countDown();
+		done.await();
+		long t1 = System.nanoTime();
+		long total = (long) nthreads * nbookings;
+		logger.info("[" + mode + "] time: " + ((t1 - t0) / 1000000) + "ms" +
+				" | throughput: " + (total * 1000000000L / Math.max(1, t1 - t0)) + " bookings/s" +
+				" | booked: " + booked.get() + "/" + total);
+	}
+
+}
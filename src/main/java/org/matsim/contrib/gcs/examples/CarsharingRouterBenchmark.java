@@ -0,0 +1,95 @@
+package org.matsim.contrib.gcs.examples;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.gcs.carsharing.CarsharingScenario;
+import org.matsim.contrib.gcs.carsharing.CarsharingScenarioReader;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingStation;
+import org.matsim.contrib.gcs.router.CarsharingFastestPaths;
+import org.matsim.contrib.gcs.router.CarsharingTravelTimeMatrix;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.router.DijkstraFactory;
+import org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutility;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
+
+/**
+ * Compares the cs_drive routing backends on random station to station queries of a carsharing scenario,
+ * with free speed travel times: the Dijkstra of the trip router, then the fastest paths without and with landmarks.
+ *
+ * Usage: CarsharingRouterBenchmark config.xml [queries] [landmarks]
+ */
+public class CarsharingRouterBenchmark {
+
+	private static Logger logger = Logger.getLogger(CarsharingRouterBenchmark.class);
+
+	public static void main(String[] args) {
+		final Config config = ConfigUtils.loadConfig(args[0]);
+		final int nqueries = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+		final int landmarks = (args.length > 2) ? Integer.parseInt(args[2]) : 16;
+		final Scenario scenario = ScenarioUtils.loadScenario(config);
+		final CarsharingScenario carsharing = new CarsharingScenario(scenario, null);
+		new CarsharingScenarioReader(carsharing, scenario).readXml(carsharing.getConfig().getCarsharingScenarioInputFile());
+		final Network network = carsharing.getCarNetwork();
+		final TravelTime tt = new FreeSpeedTravelTime();
+
+		List<Link> stations = new ArrayList<Link>();
+		for(CarsharingStation s : carsharing.getStations().values()) {
+			Link l = network.getLinks().get(s.facility().getLinkId());
+			if(l != null) stations.add(l);
+		}
+		if(stations.size() < 2) {
+			throw new RuntimeException("at least two stations on the car network are needed");
+		}
+		Random random = new Random(4711);
+		Link[] from = new Link[nqueries];
+		Link[] to = new Link[nqueries];
+		double[] time = new double[nqueries];
+		for(int q = 0; q < nqueries; q++) {
+			from[q] = stations.get(random.nextInt(stations.size()));
+			to[q] = stations.get(random.nextInt(stations.size()));
+			time[q] = random.nextInt(24 * 3600);
+		}
+		logger.info("links: " + network.getLinks().size() + " | stations: " + stations.size() + " | queries: " + nqueries);
+
+		// trip router backend
+		LeastCostPathCalculator dijkstra = new DijkstraFactory().createPathCalculator(network, new OnlyTimeDependentTravelDisutility(tt), tt);
+		long found = 0;
+		long t0 = System.nanoTime();
+		for(int q = 0; q < nqueries; q++) {
+			if(dijkstra.calcLeastCostPath(from[q].getToNode(), to[q].getFromNode(), time[q], null, null) != null) found++;
+		}
+		long t1 = System.nanoTime();
+		logger.info("[DIJKSTRA] query: " + ((t1 - t0) / nqueries / 1000) + "us | (" + found + ")");
+
+		// flat arrays, without then with landmarks
+		long b0 = System.nanoTime();
+		CarsharingFastestPaths paths = new CarsharingFastestPaths(network);
+		long b1 = System.nanoTime();
+		found = 0;
+		for(int q = 0; q < nqueries; q++) {
+			if(paths.route(from[q].getId(), to[q].getId(), time[q], tt, 0) != null) found++;
+		}
+		long t2 = System.nanoTime();
+		logger.info("[FASTEST] build: " + ((b1 - b0) / 1000000) + "ms | query: " + ((t2 - b1) / nqueries / 1000) + "us | (" + found + ")");
+
+		paths.prepareLandmarks(landmarks, tt, carsharing.getConfig().getTravelTimeMatrixBin(), CarsharingTravelTimeMatrix.HORIZON);
+		long t3 = System.nanoTime();
+		found = 0;
+		for(int q = 0; q < nqueries; q++) {
+			if(paths.route(from[q].getId(), to[q].getId(), time[q], tt, 0) != null) found++;
+		}
+		long t4 = System.nanoTime();
+		logger.info("[ALT-" + paths.landmarks() + "] prepare: " + ((t3 - t2) / 1000000) + "ms | query: " + ((t4 - t3) / nqueries / 1000) + "us | (" + found + ")");
+	}
+
+}
@@ -0,0 +1,91 @@
+package org.matsim.contrib.gcs.examples;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.contrib.gcs.carsharing.CarsharingScenario;
+import org.matsim.contrib.gcs.carsharing.CarsharingScenarioReader;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingSpatialIndex;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingStation;
+import org.matsim.contrib.gcs.carsharing.impl.CarsharingSpatialIndexFactory;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+
+/**
+ * Compares the spatial indexes on the stations of a carsharing scenario: build time, then disk and closest queries
+ * of one search distance around the activities of the selected plans.
+ * 
+ * Usage: CarsharingSpatialIndexBenchmark config.xml [repetitions]
+ */
+public class CarsharingSpatialIndexBenchmark {
+	
+	private static Logger logger = Logger.getLogger(CarsharingSpatialIndexBenchmark.class);
+
+	public static void main(String[] args) {
+		final Config config = ConfigUtils.loadConfig(args[0]);
+		final int repetitions = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+		final Scenario scenario = ScenarioUtils.loadScenario(config);
+		final CarsharingScenario carsharing = new CarsharingScenario(scenario, null);
+		new CarsharingScenarioReader(carsharing, scenario).readXml(carsharing.getConfig().getCarsharingScenarioInputFile());
+		final double searchDistance = carsharing.getConfig().getSearchDistance();
+		
+		List<Coord> queries = new ArrayList<Coord>();
+		for(Person p : scenario.getPopulation().getPersons().values()) {
+			for(PlanElement pe : p.getSelectedPlan().getPlanElements()) {
+				if(pe instanceof Activity && ((Activity) pe).getCoord() != null) {
+					queries.add(((Activity) pe).getCoord());
+				}
+			}
+		}
+		if(queries.isEmpty()) {
+			for(CarsharingStation s : carsharing.getStations().values()) {
+				queries.add(s.facility().getCoord());
+			}
+		}
+		logger.info("stations: " + carsharing.getStations().size() + " | queries: " + queries.size() + " | search distance: " + searchDistance);
+		
+		List<CarsharingStation> stations = new ArrayList<CarsharingStation>(carsharing.getStations().values());
+		double[] x = new double[stations.size()];
+		double[] y = new double[stations.size()];
+		for(int i = 0; i < stations.size(); i++) {
+			x[i] = stations.get(i).facility().getCoord().getX();
+			y[i] = stations.get(i).facility().getCoord().getY();
+		}
+		
+		for(String type : new String[] { CarsharingSpatialIndexFactory.QUADTREE, CarsharingSpatialIndexFactory.GRID }) {
+			long build = 0, disk = 0, closest = 0, found = 0;
+			for(int r = 0; r < repetitions; r++) {
+				long t0 = System.nanoTime();
+				CarsharingSpatialIndex<CarsharingStation> index = CarsharingSpatialIndexFactory.index(type, carsharing.getCarNetwork(), searchDistance);
+				index.putAll(x, y, stations);
+				long t1 = System.nanoTime();
+				for(Coord c : queries) {
+					found += index.getDisk(c.getX(), c.getY(), searchDistance).size();
+				}
+				long t2 = System.nanoTime();
+				for(Coord c : queries) {
+					if(index.getClosest(c.getX(), c.getY()) != null) found++;
+				}
+				long t3 = System.nanoTime();
+				if(r > 0) { // first run is the warm up
+					build += t1 - t0;
+					disk += t2 - t1;
+					closest += t3 - t2;
+				}
+			}
+			int runs = Math.max(1, repetitions - 1);
+			logger.info("[" + type + "] build: " + (build / runs / 1000) + "us" +
+					" | getDisk: " + (disk / runs / Math.max(1, queries.size())) + "ns/query" +
+					" | getClosest: " + (closest / runs / Math.max(1, queries.size())) + "ns/query" +
+					" | (" + found + ")");
+		}
+	}
+
+}
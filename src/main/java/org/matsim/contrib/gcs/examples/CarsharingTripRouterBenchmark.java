@@ -0,0 +1,101 @@
+package org.matsim.contrib.gcs.examples;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.gcs.carsharing.CarsharingScenario;
+import org.matsim.contrib.gcs.carsharing.CarsharingScenarioReader;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingStation;
+import org.matsim.contrib.gcs.router.CarsharingRouterUtils;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Injector;
+import org.matsim.core.events.EventsManagerModule;
+import org.matsim.core.router.RoutingModule;
+import org.matsim.core.router.TripRouter;
+import org.matsim.core.router.TripRouterModule;
+import org.matsim.core.router.costcalculators.TravelDisutilityModule;
+import org.matsim.core.scenario.ScenarioByInstanceModule;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.trafficmonitoring.TravelTimeCalculatorModule;
+
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.name.Names;
+
+/**
+ * Measures what a drive costs when the trip router is taken from its provider at every call, as the manager did,
+ * against one trip router reused by the thread: time and bytes allocated per cs_drive, on random station pairs
+ * for random persons of the population, the drive being bound to the car routing module as in the carsharing installer.
+ *
+ * Usage: CarsharingTripRouterBenchmark config.xml [drives]
+ */
+public class CarsharingTripRouterBenchmark {
+
+	private static Logger logger = Logger.getLogger(CarsharingTripRouterBenchmark.class);
+
+	public static void main(String[] args) {
+		final Config config = ConfigUtils.loadConfig(args[0]);
+		final int drives = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+		final Scenario scenario = ScenarioUtils.loadScenario(config);
+		final CarsharingScenario carsharing = new CarsharingScenario(scenario, null);
+		new CarsharingScenarioReader(carsharing, scenario).readXml(carsharing.getConfig().getCarsharingScenarioInputFile());
+		final Provider<TripRouter> provider = Injector.createInjector(config,
+				new ScenarioByInstanceModule(scenario),
+				new EventsManagerModule(),
+				new TravelTimeCalculatorModule(),
+				new TravelDisutilityModule(),
+				new TripRouterModule(),
+				new AbstractModule() {
+					@Override
+					public void install() {
+						addTravelTimeBinding(CarsharingRouterUtils.cs_drive).to(networkTravelTime());
+						addTravelDisutilityFactoryBinding(CarsharingRouterUtils.cs_drive).to(carTravelDisutilityFactoryKey());
+						addRoutingModuleBinding(CarsharingRouterUtils.cs_drive).to(Key.get(RoutingModule.class, Names.named(TransportMode.car)));
+					}
+				}).getProvider(TripRouter.class);
+
+		List<CarsharingStation> stations = new ArrayList<CarsharingStation>(carsharing.getStations().values());
+		if(stations.size() < 2) {
+			throw new RuntimeException("at least two stations are needed");
+		}
+		List<Person> persons = new ArrayList<Person>(scenario.getPopulation().getPersons().values());
+		if(persons.isEmpty()) {
+			throw new RuntimeException("at least one person is needed");
+		}
+		Random random = new Random(4711);
+		CarsharingStation[] from = new CarsharingStation[drives];
+		CarsharingStation[] to = new CarsharingStation[drives];
+		Person[] person = new Person[drives];
+		for(int q = 0; q < drives; q++) {
+			from[q] = stations.get(random.nextInt(stations.size()));
+			to[q] = stations.get(random.nextInt(stations.size()));
+			person[q] = persons.get(random.nextInt(persons.size()));
+		}
+		logger.info("stations: " + stations.size() + " | persons: " + persons.size() + " | drives: " + drives);
+
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		for(boolean reuse : new boolean[] { false, true, false, true }) { // first pair is the warm up
+			TripRouter router = provider.get();
+			long b0 = bean.getThreadAllocatedBytes(thread);
+			long t0 = System.nanoTime();
+			for(int q = 0; q < drives; q++) {
+				if(!reuse) router = provider.get();
+				router.calcRoute(CarsharingRouterUtils.cs_drive, from[q].facility(), to[q].facility(), 8 * 3600, person[q]);
+			}
+			long t1 = System.nanoTime();
+			long b1 = bean.getThreadAllocatedBytes(thread);
+			logger.info("[" + (reuse ? "REUSED" : "PROVIDER") + "] drive: " + ((t1 - t0) / drives / 1000) + "us" +
+					" | allocated: " + ((b1 - b0) / drives) + "B/drive");
+		}
+	}
+
+}
@@ -6,27 +6,27 @@ import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.PlanElement;
 import org.matsim.contrib.gcs.carsharing.CarsharingManager;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingCustomerMobsim;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingSpatialIndex;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingStationMobsim;
 import org.matsim.contrib.gcs.carsharing.impl.CarsharingCustomerFactory;
 import org.matsim.contrib.gcs.operation.model.CarsharingMembershipModel;
 import org.matsim.contrib.gcs.operation.model.CarsharingUserChoiceModel;
 import org.matsim.contrib.gcs.router.CarsharingRouterUtils;
 import org.matsim.contrib.gcs.utils.CarsharingUtils;
-import org.matsim.core.utils.collections.QuadTree;
 import org.matsim.facilities.ActivityFacility;
 import org.matsim.pt.PtConstants;
 
 public class CarsharingMembershipModelImpl implements CarsharingMembershipModel {
 
 	static String carsharingNearBy = "CS:nearby";
-	final QuadTree<CarsharingStationMobsim> qt;
+	final CarsharingSpatialIndex<CarsharingStationMobsim> qt;
 	final Double searchDistance;
 	final boolean distanceBased;
 	final CarsharingManager m;
 	
 	public CarsharingMembershipModelImpl(CarsharingManager manager, boolean distanceBased) {
 		this.m = manager;
-		this.qt = manager.getStations().qtree();
+		this.qt = manager.getStations().index();
 		this.searchDistance = manager.getConfig().getSearchDistance();
 		this.distanceBased = distanceBased;
 	}
@@ -36,7 +36,7 @@ public class CarsharingMembershipModelImpl implements CarsharingMembershipModel
 		boolean goodcustomer = false;
 		
 		// Check in customer, only if all activites are located near by a carsharing station
-		QuadTree<CarsharingStationMobsim> qt = m.getStations().qtree();
+		CarsharingSpatialIndex<CarsharingStationMobsim> qt = m.getStations().index();
 		int counter = 0;
 		int nearstationcounter = 0;
 		boolean alreadyUsingCarsharing = false;
@@ -44,7 +44,11 @@ public class CarsharingMembershipModelImpl implements CarsharingMembershipModel
 			if(pe instanceof Activity) {
 				Activity act = ((Activity)pe);
 				if(checkNotStageActivity(act)) {
-					if(qt.getDisk(act.getCoord().getX(), act.getCoord().getY(), this.searchDistance).size() >= 1) {
+					if(m.getConfig().isWalkCatchments()) {
+						if(!m.catchments().nearest(act.getCoord(), act.getLinkId(), 1, null, m.getConfig().getAccessWalkCalcRoute()).isEmpty()) {
+							nearstationcounter++;
+						}
+					} else if(qt.getDisk(act.getCoord().getX(), act.getCoord().getY(), this.searchDistance).size() >= 1) {
 						nearstationcounter++;
 					}
 					counter++;
@@ -3,6 +3,7 @@ package org.matsim.contrib.gcs.operation.impl;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.network.Network;
@@ -12,9 +13,7 @@ import org.matsim.contrib.gcs.carsharing.core.CarsharingBookingStation;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingDemand;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingOffer;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingOffer.CarsharingOfferStatus;
-import org.matsim.contrib.gcs.carsharing.core.CarsharingStation;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingStationMobsim;
-import org.matsim.contrib.gcs.carsharing.impl.CarsharingStationFactory;
 import org.matsim.contrib.gcs.config.CarsharingConfigGroup;
 import org.matsim.contrib.gcs.operation.model.CarsharingOfferModel;
 import org.matsim.contrib.gcs.router.CarsharingNearestStationRouterModule;
@@ -22,7 +21,6 @@ import org.matsim.contrib.gcs.router.CarsharingRouterUtils;
 import org.matsim.contrib.gcs.router.CarsharingNearestStationRouterModule.CarsharingLocationInfo;
 import org.matsim.contrib.gcs.router.CarsharingRouterUtils.RouteData;
 import org.matsim.contrib.gcs.utils.CarsharingUtils;
-import org.matsim.core.gbl.MatsimRandom;
 import org.matsim.core.network.NetworkUtils;
 import org.matsim.core.router.TripRouter;
 
@@ -43,7 +41,6 @@ public class CarsharingOfferModelImpl implements CarsharingOfferModel  {
 	double tau = 2.0 * 3600.0;
 	double alpha = 0.7;
 	private double timeFeePerMinute; // 1 euro per minute
-	private int time;
 
 	private TripRouter router;
 	final CarsharingNearestStationRouterModule nearStationRouter;
@@ -55,7 +52,7 @@ public class CarsharingOfferModelImpl implements CarsharingOfferModel  {
 		this.cs_conf = manager.getConfig();
 		this.network = this.scenario.getNetwork();
 		this.timeFeePerMinute = manager.getConfig().getDriveCalcScore().getMonetaryDistanceRate();
-		this.floatingStations = false;
+		this.floatingStations = this.cs_conf.isFloatingStations();
 		this.router = tripRouterProvider.get();
 		this.nearStationRouter = new CarsharingNearestStationRouterModule(this.scenario, this.manager, null);
 	}
@@ -69,10 +66,9 @@ public class CarsharingOfferModelImpl implements CarsharingOfferModel  {
 	
 	@Override
 	public ArrayList<CarsharingOffer> computeRentalOffers(int time, CarsharingDemand demand) {
-		this.time = time;
 		ArrayList<CarsharingOffer> offers = new ArrayList<CarsharingOffer>();
-		for(CarsharingOffer depOffer : calculateDepartureOffers(demand)) {
-			for(CarsharingOffer finalOffer : calculateArrivalOffers(depOffer)) {
+		for(CarsharingOffer depOffer : calculateDepartureOffers(time, demand)) {
+			for(CarsharingOffer finalOffer : calculateArrivalOffers(time, depOffer)) {
 				offers.add(finalOffer);
 			}
 		}
@@ -104,22 +100,46 @@ public class CarsharingOfferModelImpl implements CarsharingOfferModel  {
 	
 	/**
 	 * 
+	 * @param time
 	 * @param demand
 	 * @return
 	 */
-	public ArrayList<CarsharingOffer> calculateDepartureOffers(CarsharingDemand demand) {
+	public ArrayList<CarsharingOffer> calculateDepartureOffers(int time, CarsharingDemand demand) {
 		ArrayList<CarsharingOffer> offers = new ArrayList<CarsharingOffer>();
-		CarsharingLocationInfo closest_station = this.nearStationRouter.getNearestStationToDeparture(demand.getOrigin().getCoord());
-		
-		if(closest_station.station == null) {
-			offers.add(this.getAccessStationOffer(demand, closest_station, CarsharingOffer.FAILURE_NODEPARTURESTATION));
+		List<CarsharingLocationInfo> stations = null;
+		if(this.cs_conf.isWalkCatchments()) {
+			if(this.cs_conf.isAvailabilityAwareSearch()) {
+				stations = manager.catchments().departure(demand.getOrigin(), this.cs_conf.getStationCandidates(), demand.getNbrOfVeh());
+				if(stations.isEmpty()) { // the stations kept by the catchment have no vehicle, search further
+					stations = this.nearStationRouter.getNearestAvailableStationsToDeparture(
+							demand.getOrigin().getCoord(), this.cs_conf.getStationCandidates(), demand.getNbrOfVeh());
+				}
+			}
+			if(stations == null || stations.isEmpty()) {
+				stations = manager.catchments().departure(demand.getOrigin(), this.cs_conf.getStationCandidates(), 0);
+			}
 		} else {
-			if(manager.booking().track(closest_station.station).vehicleAvailability() < demand.getNbrOfVeh()) {
-				offers.add(this.getAccessStationOffer(demand, closest_station, CarsharingOffer.FAILURE_NODEPARTUREAVAILABILITY));
-			} else if(!CarsharingUtils.checkbatteryFromBooking(manager, closest_station, demand.getNbrOfVeh())){
-				offers.add(this.getAccessStationOffer(demand, closest_station, CarsharingOffer.FAILURE_NOCHARGEDVEHICLE));
+			if(this.cs_conf.isAvailabilityAwareSearch()) {
+				stations = this.nearStationRouter.getNearestAvailableStationsToDeparture(
+						demand.getOrigin().getCoord(), this.cs_conf.getStationCandidates(), demand.getNbrOfVeh());
+			}
+			if(stations == null || stations.isEmpty()) {
+				stations = this.nearStationRouter.getNearestStationsToDeparture(
+						demand.getOrigin().getCoord(), this.cs_conf.getStationCandidates());
+			}
+		}
+		
+		if(stations.isEmpty()) {
+			offers.add(this.getAccessStationOffer(time, demand, new CarsharingLocationInfo(null), CarsharingOffer.FAILURE_NODEPARTURESTATION));
+		}
+		for(CarsharingLocationInfo closest_station : stations) {
+			if(manager.booking().vehicleAvailability(closest_station.station) < demand.getNbrOfVeh()) {
+				offers.add(this.getAccessStationOffer(time, demand, closest_station, CarsharingOffer.FAILURE_NODEPARTUREAVAILABILITY));
+			} else if(!manager.booking().isSnapshotView() && // the batteries of offers computed in advance are checked at departure
+					!CarsharingUtils.checkbatteryFromBooking(manager, closest_station, demand.getNbrOfVeh())){
+				offers.add(this.getAccessStationOffer(time, demand, closest_station, CarsharingOffer.FAILURE_NOCHARGEDVEHICLE));
 			} else {
-				offers.add(this.getAccessStationOffer(demand, closest_station, CarsharingOffer.SUCCESS_STANDARDOFFER));
+				offers.add(this.getAccessStationOffer(time, demand, closest_station, CarsharingOffer.SUCCESS_STANDARDOFFER));
 			}
 		}
 		return offers;
@@ -129,21 +149,71 @@ public class CarsharingOfferModelImpl implements CarsharingOfferModel  {
 	/**
 	 * calculateArrivalOffers
 	 */
-	public ArrayList<CarsharingOffer> calculateArrivalOffers(CarsharingOffer offer) {
+	public ArrayList<CarsharingOffer> calculateArrivalOffers(int time, CarsharingOffer offer) {
 		ArrayList<CarsharingOffer> offers = new ArrayList<CarsharingOffer>();
-		CarsharingLocationInfo closest_station = this.nearStationRouter.getNearestStationToArrival(offer.getDemand().getDestination().getCoord(), offer.getAccess().getStation());
-		
-		if(closest_station.station == null) {
-			offers.add(this.getEgressStationOffer(offer, closest_station, CarsharingOffer.FAILURE_NOARRIVALSTATION));
-		} else if(manager.booking().track(closest_station.station).parkingAvailability() < offer.getDemand().getNbrOfVeh()) {
-			offers.add(this.getEgressStationOffer(offer, closest_station, CarsharingOffer.FAILURE_NOARRIVALAVAILABILITY));
+		List<CarsharingLocationInfo> stations = null;
+		if(this.cs_conf.isWalkCatchments()) {
+			if(this.cs_conf.isAvailabilityAwareSearch()) {
+				stations = manager.catchments().arrival(offer.getDemand().getDestination(), this.cs_conf.getStationCandidates(), 
+						offer.getDemand().getNbrOfVeh(), offer.getAccess().getStation());
+				if(stations.isEmpty()) { // the stations kept by the catchment have no slot, search further
+					stations = this.nearStationRouter.getNearestAvailableStationsToArrival(
+							offer.getDemand().getDestination().getCoord(), this.cs_conf.getStationCandidates(), 
+							offer.getDemand().getNbrOfVeh(), offer.getAccess().getStation());
+				}
+			}
+			if(stations == null || stations.isEmpty()) {
+				stations = manager.catchments().arrival(offer.getDemand().getDestination(), this.cs_conf.getStationCandidates(), 
+						0, offer.getAccess().getStation());
+			}
 		} else {
-			offers.add(this.getEgressStationOffer(offer, closest_station, CarsharingOffer.SUCCESS_STANDARDOFFER));
+			if(this.cs_conf.isAvailabilityAwareSearch()) {
+				stations = this.nearStationRouter.getNearestAvailableStationsToArrival(
+						offer.getDemand().getDestination().getCoord(), this.cs_conf.getStationCandidates(), 
+						offer.getDemand().getNbrOfVeh(), offer.getAccess().getStation());
+			}
+			if(stations == null || stations.isEmpty()) {
+				stations = this.nearStationRouter.getNearestStationsToArrival(
+						offer.getDemand().getDestination().getCoord(), this.cs_conf.getStationCandidates(), offer.getAccess().getStation());
+			}
+		}
+		
+		CarsharingLocationInfo spot = this.floatingStations ? this.getFloatingLocation(offer) : null;
+		
+		// DRIVES FROM THE ACCESS STATION, ONE SEARCH FOR ALL CANDIDATES MISSING FROM THE MATRIX
+		Map<CarsharingStationMobsim, RouteData> routes = null;
+		if(offer.getAccess().getStation() != null) {
+			List<CarsharingStationMobsim> candidates = new ArrayList<CarsharingStationMobsim>(stations.size() + 1);
+			for(CarsharingLocationInfo closest_station : stations) {
+				candidates.add(closest_station.station);
+			}
+			if(spot != null) candidates.add(spot.station);
+			if(candidates.size() > 1) { // a single one is estimated with the offer
+				routes = CarsharingRouterUtils.estimateTCC(manager, offer.getAccess().getStation(), candidates, offer.getAccessTime());
+			}
+		}
+		
+		if(stations.isEmpty()) {
+			offers.add(this.getEgressStationOffer(offer, new CarsharingLocationInfo(null), CarsharingOffer.FAILURE_NOARRIVALSTATION));
+		}
+		for(CarsharingLocationInfo closest_station : stations) {
+			RouteData rd = (routes == null) ? null : routes.get(closest_station.station);
+			if(manager.booking().parkingAvailability(closest_station.station) < offer.getDemand().getNbrOfVeh()) {
+				offers.add(this.getEgressStationOffer(offer, closest_station, CarsharingOffer.FAILURE_NOARRIVALAVAILABILITY, rd));
+			} else {
+				offers.add(this.getEgressStationOffer(offer, closest_station, CarsharingOffer.SUCCESS_STANDARDOFFER, rd));
+			}
 		}
 		
 		// FLOATING OFFER
-		if(this.floatingStations) 
-			offers.add(this.getEgressStationFloatingOffer(offer));
+		if(spot != null) {
+			RouteData rd = (routes == null) ? null : routes.get(spot.station);
+			if(manager.booking().parkingAvailability(spot.station) < offer.getNbOfVehicles()) {
+				offers.add(this.getEgressStationOffer(offer, spot, CarsharingOffer.FAILURE_FLOATINGLIMIT, rd));
+			} else {
+				offers.add(this.getEgressStationOffer(offer, spot, CarsharingOffer.SUCCESS_FREEFLOATINGOFFER, rd));
+			}
+		}
 		// USER RELOCATION TIME
 		offers.addAll(manager.relocation().relocationList(time, offer.getDemand(), offers));
 		return offers;
@@ -151,15 +221,16 @@ public class CarsharingOfferModelImpl implements CarsharingOfferModel  {
 	
 	/**
 	 * 
+	 * @param time
 	 * @param demand
 	 * @param selectedStation
 	 * @param monetaryOption
 	 * @param roadTrainSize
 	 */
-	public CarsharingOffer getAccessStationOffer(CarsharingDemand demand, CarsharingLocationInfo s, CarsharingOfferStatus flag) {
+	public CarsharingOffer getAccessStationOffer(int time, CarsharingDemand demand, CarsharingLocationInfo s, CarsharingOfferStatus flag) {
 
 		CarsharingOffer.Builder builder = CarsharingOffer.Builder.newInstanceFromAgent(demand.getAgent(), demand);
-		builder.setAccess(this.time, s.station, s.traveltime, s.distance, flag);
+		builder.setAccess(time, s.station, s.traveltime, s.distance, flag);
 		builder.setCost(this.timeFeePerMinute);
 		builder.setDrive(demand.getNbrOfVeh());
 		return builder.build();
@@ -172,15 +243,30 @@ public class CarsharingOfferModelImpl implements CarsharingOfferModel  {
 	 * @return
 	 */
 	public CarsharingOffer getEgressStationOffer(CarsharingOffer o, CarsharingLocationInfo s, CarsharingOfferStatus flag) {
+		return this.getEgressStationOffer(o, s, flag, null);
+	}
+	
+	/**
+	 * 
+	 * @param o
+	 * @param s
+	 * @param flag
+	 * @param rd drive from the access station, estimated here when <code>null</code>
+	 * @return
+	 */
+	public CarsharingOffer getEgressStationOffer(CarsharingOffer o, CarsharingLocationInfo s, CarsharingOfferStatus flag, RouteData rd) {
 		
 		CarsharingOffer.Builder builder = CarsharingOffer.Builder.newInstanceFromOffer(o);
 		
 		if(flag != CarsharingOffer.FAILURE_NOARRIVALSTATION && o.getAccess().getStation() != null) {
-			RouteData rd = CarsharingRouterUtils.calcTCC(manager, 
-					o.getAccess().getStation().facility(), 
-					s.station.facility(), 
-					o.getAccessTime(), 
-					o.getDemand().getAgent().getPerson());
+			if(rd == null) {
+				// estimates only, the path is routed at pickup if the offer is booked, see prepareDrive
+				rd = CarsharingRouterUtils.estimateTCC(manager, 
+						o.getAccess().getStation(), 
+						s.station, 
+						o.getAccessTime(), 
+						o.getDemand().getAgent().getPerson());
+			}
 			
 			builder.setDrive(o.getNbOfVehicles(), rd);
 			builder.setEgress(s.station, s.traveltime, s.distance, flag);
@@ -197,41 +283,34 @@ public class CarsharingOfferModelImpl implements CarsharingOfferModel  {
 	/**
 	 * 
 	 * @param offer
-	 * @return
+	 * @return offer to drop the vehicles at the free floating spot nearest to the destination
 	 */
 	public CarsharingOffer getEgressStationFloatingOffer(CarsharingOffer offer) {
 		
 			// FLOATING OFFERS
-			int min = manager.getStations().qtree().size();
-			int max = min * 1000;
-			int sid = MatsimRandom.getRandom().nextInt(max - min + 1) + min;
-			int sid2 = MatsimRandom.getRandom().nextInt(max - min + 1) + min;
+			CarsharingLocationInfo location = this.getFloatingLocation(offer);
 			
-			String newFSid = sid2 + sid + "";
+			if(manager.booking().parkingAvailability(location.station) < offer.getNbOfVehicles()) {
+				return this.getEgressStationOffer(offer, location, CarsharingOffer.FAILURE_FLOATINGLIMIT);
+			}
+			return this.getEgressStationOffer(offer, location, CarsharingOffer.SUCCESS_FREEFLOATINGOFFER);
+	}
 	
-			CarsharingStation newFS = CarsharingStationFactory.stationBuilder(
-					scenario, newFSid, 
-					offer.getDemand().getDestination().getCoord()).
-						setCapacity(offer.getNbOfVehicles()).
-						setType("FLOATING").
-						build();
-			
-			// GET DURATION DISTANCE STATION ACTIVITY
-			
-			final double egressDist = NetworkUtils.getEuclideanDistance(newFS.facility().getCoord(), offer.getDemand().getDestination().getCoord());
-			final double traveltime = CarsharingUtils.travelTimeBeeline(egressDist, this.cs_conf.getEgressWalkCalcRoute());
-			final double distance = CarsharingUtils.distanceBeeline(egressDist, this.cs_conf.getEgressWalkCalcRoute());
-			
-			RouteData rd = CarsharingRouterUtils.calcTCC(manager, 
-					offer.getAccess().getStation().facility(), 
-					newFS.facility(), 
-					offer.getAccessTime(), 
-					offer.getDemand().getAgent().getPerson());
-			
-			CarsharingOffer.Builder builder = CarsharingOffer.Builder.newInstanceFromOffer(offer);
-			builder.setDrive(offer.getNbOfVehicles(), rd);
-			builder.setEgress((CarsharingStationMobsim) newFS, (int) traveltime, distance, CarsharingOffer.SUCCESS_FREEFLOATINGOFFER);
-			return builder.build();
+	/**
+	 * 
+	 * @param offer
+	 * @return the free floating spot nearest to the destination, with the egress walk
+	 */
+	private CarsharingLocationInfo getFloatingLocation(CarsharingOffer offer) {
+		CarsharingStationMobsim spot = manager.floating().spot(offer.getDemand().getDestination().getCoord());
+		
+		// GET DURATION DISTANCE STATION ACTIVITY
+		final double egressDist = NetworkUtils.getEuclideanDistance(spot.facility().getCoord(), offer.getDemand().getDestination().getCoord());
+		CarsharingLocationInfo location = new CarsharingLocationInfo(null);
+		location.station = spot;
+		location.traveltime = CarsharingUtils.travelTimeBeeline(egressDist, this.cs_conf.getEgressWalkCalcRoute());
+		location.distance = CarsharingUtils.distanceBeeline(egressDist, this.cs_conf.getEgressWalkCalcRoute());
+		return location;
 	}
 	
 }
@@ -1,21 +1,32 @@
 package org.matsim.contrib.gcs.operation.impl;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.matsim.api.core.v01.Coord;
 import org.matsim.contrib.gcs.carsharing.AbstractRelocationStrategy;
 import org.matsim.contrib.gcs.carsharing.CarsharingManager;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingBookingStation;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingDemand;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingOffer;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingOperatorMobsim;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingRelocationTask;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingStationMobsim;
+import org.matsim.contrib.gcs.router.CarsharingRouterUtils;
+import org.matsim.contrib.gcs.router.CarsharingRouterUtils.RouteData;
+import org.matsim.contrib.gcs.utils.CarsharingUtils;
 import org.matsim.core.router.TripRouter;
+import org.matsim.core.utils.geometry.CoordUtils;
 
 
 public class CarsharingRelocationModelImpl extends AbstractRelocationStrategy {
 	
 	CarsharingManager m;
 	TripRouter router;
+	int dispatch = -1;
 	
 	public CarsharingRelocationModelImpl(
 			CarsharingManager m, 
@@ -31,13 +42,74 @@ public class CarsharingRelocationModelImpl extends AbstractRelocationStrategy {
 		return new ArrayList<CarsharingOffer>();
 	}
 
+	/**
+	 * Once per bin, a station left without vehicles until the next bin gets one from the nearest station 
+	 * which can spare it, driven by the nearest idle operator of that station within the search distance.
+	 */
 	@Override
 	protected ArrayList<CarsharingRelocationTask> oprelocate() {
-		return new ArrayList<CarsharingRelocationTask>();
+		ArrayList<CarsharingRelocationTask> tasks = new ArrayList<CarsharingRelocationTask>();
+		if(this.dispatch < 0) return tasks;
+		int time = this.dispatch;
+		this.dispatch = -1;
+		int horizon = time + this.time_step.getBin();
+		List<CarsharingStationMobsim> empty = new ArrayList<CarsharingStationMobsim>();
+		List<CarsharingStationMobsim> spare = new ArrayList<CarsharingStationMobsim>();
+		for(CarsharingStationMobsim s : this.m.getStations()) {
+			CarsharingBookingStation b = this.m.booking().track(s);
+			int vehicles = Math.min(b.vehicleAvailability(), b.vehicleAvailability(horizon));
+			if(vehicles <= 0 && b.parkingAvailability() > 0) {
+				empty.add(s);
+			} else if(vehicles > 1) {
+				spare.add(s);
+			}
+		}
+		double distance = this.m.getConfig().getSearchDistance();
+		Set<CarsharingOperatorMobsim> busy = new HashSet<CarsharingOperatorMobsim>();
+		for(CarsharingStationMobsim to : empty) {
+			CarsharingStationMobsim from = nearest(to, spare);
+			if(from == null) break;
+			CarsharingOperatorMobsim op = null;
+			for(CarsharingOperatorMobsim o : this.m.getOperators().nearestAvailable(from, busy.size() + 1, distance)) {
+				if(!busy.contains(o)) { op = o; break; }
+			}
+			if(op == null) continue;
+			busy.add(op);
+			spare.remove(from);
+			int start = time;
+			if(!op.getLocation().equals(from)) { // walk to the station
+				double euc_distance = CoordUtils.calcEuclideanDistance(op.getLocation().facility().getCoord(), from.facility().getCoord());
+				int tt = CarsharingUtils.travelTimeBeeline(euc_distance, this.m.getConfig().getAccessWalkCalcRoute());
+				double dist = CarsharingUtils.distanceBeeline(euc_distance, this.m.getConfig().getAccessWalkCalcRoute());
+				tasks.add(CarsharingRelocationTask.endTask(op.getId() + "_" + time + "_access", time, op, from, 0, tt, dist));
+				start += tt;
+			}
+			RouteData rd = CarsharingRouterUtils.estimateTCC(this.m, from, to, start, op.getPerson());
+			tasks.add(CarsharingRelocationTask.startTask(op.getId() + "_" + time + "_start", start, op, from, 1, 0, 0));
+			CarsharingRelocationTask end = CarsharingRelocationTask.endTask(op.getId() + "_" + time + "_end", start + rd.time, op, to, 1, rd.time, rd.distance);
+			end.setRoute(rd);
+			tasks.add(end);
+		}
+		return tasks;
+	}
+	
+	private static CarsharingStationMobsim nearest(CarsharingStationMobsim station, List<CarsharingStationMobsim> candidates) {
+		Coord coord = station.facility().getCoord();
+		CarsharingStationMobsim nearest = null;
+		double min = Double.POSITIVE_INFINITY;
+		for(CarsharingStationMobsim s : candidates) {
+			double d = CoordUtils.calcEuclideanDistance(coord, s.facility().getCoord());
+			if(d < min) {
+				min = d;
+				nearest = s;
+			}
+		}
+		return nearest;
 	}
 
 	@Override
 	protected void update(int time, boolean checked) {
+		if(checked) this.dispatch = time;
 	}
 
 	
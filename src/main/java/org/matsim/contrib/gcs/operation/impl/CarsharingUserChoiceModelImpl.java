@@ -1,13 +1,12 @@
 package org.matsim.contrib.gcs.operation.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 
 import org.matsim.api.core.v01.population.Activity;
 import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.Plan;
-import org.matsim.api.core.v01.population.PlanElement;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingBookingRecord;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingCustomerMobsim;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingDemand;
@@ -18,14 +17,16 @@ import org.matsim.contrib.gcs.utils.CarsharingUtils;
 public class CarsharingUserChoiceModelImpl implements CarsharingUserChoiceModel {
 	
 	public static double PROB = 0;
-	protected final Map<PlanElement, CarsharingDemand> demandMap;
-	protected final Map<PlanElement, Integer> csIndex;
+	protected final ArrayList<CarsharingDemand> demands; // demands of the current plan, a few per user
+	protected int[] csIndex; // trip index of the legs of the current plan by element position, 0 if none yet
+	protected Plan demandPlan;
 	protected CarsharingCustomerMobsim user;
 	protected int index_trip = 0;
 	
 	public CarsharingUserChoiceModelImpl() {
-		this.demandMap = new HashMap<PlanElement, CarsharingDemand>();
-		this.csIndex = new HashMap<PlanElement, Integer>();
+		this.demands = new ArrayList<CarsharingDemand>();
+		this.csIndex = new int[0];
+		this.demandPlan = null;
 	}
 	
 	@Override
@@ -59,22 +60,30 @@ public class CarsharingUserChoiceModelImpl implements CarsharingUserChoiceModel
 
 	@Override
 	public CarsharingDemand getOrConstructDemand(Leg carsharingLegID, Plan currentPlan) {
-		if(this.demandMap.containsKey(carsharingLegID)) {
-			return this.demandMap.get(carsharingLegID);
+		if(this.demandPlan != currentPlan) { // legs of another plan are never asked again
+			this.demands.clear();
+			this.demandPlan = currentPlan;
+			this.csIndex = new int[currentPlan.getPlanElements().size()];
+		}
+		for(CarsharingDemand d : this.demands) {
+			if(d.getID() == carsharingLegID) return d;
 		}
 		if(!CarsharingUtils.isUnRoutedCarsharingLeg(carsharingLegID)) {
 			return null;
 		}
 
-		if(!this.csIndex.containsKey(carsharingLegID)) {
-			index_trip++;
-			this.csIndex.put(carsharingLegID, index_trip);
-		}
 		int unroutedIndex = currentPlan.getPlanElements().indexOf(carsharingLegID);
+		if(unroutedIndex >= this.csIndex.length) { // the plan grew with routed trips
+			this.csIndex = Arrays.copyOf(this.csIndex, currentPlan.getPlanElements().size());
+		}
+		if(this.csIndex[unroutedIndex] == 0) {
+			this.csIndex[unroutedIndex] = ++index_trip;
+		}
+		int tripIndex = this.csIndex[unroutedIndex];
 		Activity accessActivity = (Activity)currentPlan.getPlanElements().get(unroutedIndex - 1);
 		Activity egressActivity = (Activity)currentPlan.getPlanElements().get(unroutedIndex + 1);
-		CarsharingDemand demand = new CarsharingDemand(carsharingLegID, user, accessActivity, egressActivity, 1, unroutedIndex, this.csIndex.get(carsharingLegID));
-		this.demandMap.put(demand.getID(), demand);
+		CarsharingDemand demand = new CarsharingDemand(carsharingLegID, user, accessActivity, egressActivity, 1, unroutedIndex, tripIndex);
+		this.demands.add(demand);
 		return demand;
 	}
 }
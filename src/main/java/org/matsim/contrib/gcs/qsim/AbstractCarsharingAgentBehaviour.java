@@ -14,6 +14,7 @@ import org.matsim.api.core.v01.population.PlanElement;
 import org.matsim.contrib.gcs.carsharing.CarsharingManager;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingBookingRecord;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingCustomerMobsim;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingDemand;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingVehicleMobsim;
 import org.matsim.contrib.gcs.replanning.CarsharingPlanModeCst;
 import org.matsim.contrib.gcs.router.CarsharingRouterUtils;
@@ -60,6 +61,7 @@ public abstract class AbstractCarsharingAgentBehaviour implements 	VehicleUsingA
 	protected CarsharingManager carsharingSystemDelegate; // System
 	protected CarsharingCustomerMobsim customerAgentMemory; // Agent
 	protected CarsharingBookingRecord currBookingRecord; // booking
+	private CarsharingDemand speculativeDemand; // offers computed in advance
 	
 	public AbstractCarsharingAgentBehaviour(final Plan plan, final Netsim simulation, TripRouter tripRouter, CarsharingManager manager) {
 		this.basicAgentDelegate = new BasicPlanAgentImpl( plan, simulation.getScenario(), simulation.getEventsManager(), simulation.getSimTimer() ) ;
@@ -127,6 +129,7 @@ public abstract class AbstractCarsharingAgentBehaviour implements 	VehicleUsingA
 	@Override
 	public void endLegAndComputeNextState(double now) {
 		default_endLegAndComputeNextState(now);
+		cancelSpeculativeOffers();
 		
 		if(this.customerAgentMemory != null) {
 			PlanElement nextElem = this.basicAgentDelegate.getNextPlanElement();
@@ -152,6 +155,43 @@ public abstract class AbstractCarsharingAgentBehaviour implements 	VehicleUsingA
 		
 		if (!this.getState().equals(State.ABORT)) {
 			this.basicAgentDelegate.endLegAndComputeNextState(now);
+			scheduleNextCarsharingLeg();
+		}
+	}
+	
+	/**
+	 * If the current activity is followed by an unrouted carsharing leg, have its offers computed on the worker pool 
+	 * shortly before the end of the activity (speculative offers), and its booking done with the other departures 
+	 * of the same second (batch booking). Called by the agent factory once the agent is built, then after each leg.
+	 */
+	void scheduleNextCarsharingLeg() {
+		if(this.customerAgentMemory == null) return;
+		boolean speculative = this.carsharingSystemDelegate.getConfig().isSpeculativeOffers();
+		boolean batch = this.carsharingSystemDelegate.getConfig().isBatchBooking();
+		if(!speculative && !batch) return;
+		if(!this.getState().equals(State.ACTIVITY)) return;
+		PlanElement nextElem = this.basicAgentDelegate.getNextPlanElement();
+		double end = this.getActivityEndTime();
+		if(CarsharingUtils.isUnRoutedCarsharingLeg(nextElem) && !CarsharingUtils.isNaNorInfinit(end)) {
+			CarsharingDemand demand = this.customerAgentMemory.decision().getOrConstructDemand((Leg)nextElem, this.basicAgentDelegate.getCurrentPlan());
+			if(speculative) {
+				this.carsharingSystemDelegate.booking().scheduleOffers(
+						end - this.carsharingSystemDelegate.getConfig().getSpeculativeOffersLeadTime(), (int)end, demand);
+				this.speculativeDemand = demand;
+			}
+			if(batch) {
+				this.carsharingSystemDelegate.booking().scheduleBooking((int)Math.ceil(end), demand);
+			}
+		}
+	}
+		
+	/**
+	 * The leg the offers were computed for is over, booked with them or not
+	 */
+	private void cancelSpeculativeOffers() {
+		if(this.speculativeDemand != null) {
+			this.carsharingSystemDelegate.booking().cancelOffers(this.speculativeDemand);
+			this.speculativeDemand = null;
 		}
 	}
 		
@@ -11,7 +11,9 @@ import org.matsim.api.core.v01.population.Activity;
 import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.Plan;
 import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.contrib.gcs.carsharing.CarsharingFloatingSpots;
 import org.matsim.contrib.gcs.carsharing.CarsharingManager;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingBookingManager;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingBookingRecord;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingDemand;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingOffer;
@@ -62,6 +64,9 @@ public class CarsharingAgentBehaviour extends AbstractCarsharingAgentBehaviour {
 			
 			this.carsharingSystemDelegate.
 				booking().track(accessStation).confirm(this.currBookingRecord);
+			if(accessStation.getType().equals(CarsharingFloatingSpots.FLOATING)) {
+				this.carsharingSystemDelegate.floating().leave(accessStation);
+			}
 			this.currBookingRecord.setVehicle(vehicle);
 			this.currBookingRecord.setPark(vehicle.status().getPark().getId());
 			/*for(CarsharingVehicleMobsim v : roadTrain) {
@@ -88,11 +93,6 @@ public class CarsharingAgentBehaviour extends AbstractCarsharingAgentBehaviour {
 	public void dropoff(double now) {
 		CarsharingStationMobsim  egressStation = this.currBookingRecord.getRelatedOffer().getEgress().getStation();
 		
-		if(!this.carsharingSystemDelegate.getStations().map().containsKey(egressStation.facility().getId())) {
-			// in case of newly created freefloating station
-			this.carsharingSystemDelegate.getStations().add(egressStation);
-		}
-		
 		CarsharingVehicleMobsim vehicle = this.currBookingRecord.getVehicle();
 		CarsharingVehicleTrip ongoingTrip = vehicle.status().getTrip(); 
 		Queue<CarsharingVehicleMobsim> roadTrain = vehicle.roadTrain();
@@ -100,6 +100,9 @@ public class CarsharingAgentBehaviour extends AbstractCarsharingAgentBehaviour {
 		if(egressStation.dropoff(this.customerAgentMemory, vehicle, now)) {
 			this.carsharingSystemDelegate.
 			booking().track(egressStation).confirm(this.currBookingRecord);
+			if(egressStation.getType().equals(CarsharingFloatingSpots.FLOATING)) {
+				this.carsharingSystemDelegate.floating().park(egressStation);
+			}
 			this.currBookingRecord.setTrip(vehicle.status().getTrip().getId());
 			/*for(CarsharingVehicleMobsim v : roadTrain) {
 				this.customerAgentMemory.status().getOngoingRental().setPark(v.status().getPark().getId());
@@ -133,21 +136,33 @@ public class CarsharingAgentBehaviour extends AbstractCarsharingAgentBehaviour {
 	@Override
 	public CarsharingBookingRecord book(double now, Leg accessWalkLeg) {
 		
+		// [CUSTOMER] Get Demand from Person
+		CarsharingDemand demand = this.customerAgentMemory.decision().getOrConstructDemand(accessWalkLeg, this.basicAgentDelegate.getCurrentPlan());
+		
 		// EARLY BOOKING
-		CarsharingBookingRecord booking = this.carsharingSystemDelegate.booking().getRecord(accessWalkLeg);
-		if(booking != null)	return booking;
+		CarsharingBookingRecord booking = (demand == null) ? null : this.carsharingSystemDelegate.booking().getRecord(demand);
+		if(booking != null)	{
+			this.carsharingSystemDelegate.booking().cancelOffers(demand);
+			return booking;
+		}
 		
 		// IMMEDIATE BOOKING
-		CarsharingDemand demand = null;
 		
-		// [CUSTOMER] Get Demand from Person
-		demand = this.customerAgentMemory.decision().getOrConstructDemand(accessWalkLeg, this.basicAgentDelegate.getCurrentPlan());
-		
-		// [SYSTEM] Get Full Trips Offers
-		ArrayList<CarsharingOffer> offers = this.carsharingSystemDelegate.booking().offer().computeRentalOffers((int)now, demand);
-		
-		// [CUSTOMER] Choose an Offer
-		CarsharingOffer selectedOffer = this.customerAgentMemory.decision().selectOffer(offers);
+		// [SYSTEM] Get Full Trips Offers, [CUSTOMER] Choose an Offer, computed in advance if still available
+		ArrayList<CarsharingOffer> offers = null;
+		CarsharingOffer selectedOffer = null;
+		CarsharingBookingManager.ComputedOffers computed = this.carsharingSystemDelegate.booking().getPrecomputedOffers((int)now, demand);
+		if(computed != null && computed.getSelectedOffer() != null && 
+				this.carsharingSystemDelegate.booking().isStillAvailable(computed.getSelectedOffer())) {
+			offers = computed.getOffers();
+			selectedOffer = computed.getSelectedOffer();
+		}
+		if(offers == null) {
+			offers = this.carsharingSystemDelegate.booking().offer().computeRentalOffers((int)now, demand);
+			
+			// [CUSTOMER] Choose an Offer
+			selectedOffer = this.customerAgentMemory.decision().selectOffer(offers);
+		}
 				
 		// [SYSTEM] process Booking
 		booking = this.carsharingSystemDelegate.booking().process(now, demand, selectedOffer, offers);
@@ -245,8 +260,13 @@ public class CarsharingAgentBehaviour extends AbstractCarsharingAgentBehaviour {
 	
 	@Override
 	public Leg prepareDrive(double now, Facility Odrive, Facility Ddrive) {
-		return CarsharingUtils.createDriveLeg(Odrive, Ddrive, 
-				this.currBookingRecord.getRelatedOffer().getDrive().getRoute(), null);
+		CarsharingOffer.DriveOffer drive = this.currBookingRecord.getRelatedOffer().getDrive();
+		if(drive.getRoute() == null) {
+			// offers carry estimates, only the booked one is routed
+			drive.setRoute(CarsharingRouterUtils.calcTCC(
+					this.carsharingSystemDelegate, Odrive, Ddrive, now, this.customerAgentMemory.getPerson()).path);
+		}
+		return CarsharingUtils.createDriveLeg(Odrive, Ddrive, drive.getRoute(), null);
 	}
 	
 	
@@ -22,11 +22,12 @@ public class CarsharingAgentFactory implements AgentFactory {
 
 	@Override
 	public MobsimDriverAgent createMobsimAgentFromPerson(final Person p) {
-		MobsimDriverAgent agent = new CarsharingAgentBehaviour(
+		CarsharingAgentBehaviour agent = new CarsharingAgentBehaviour(
 										PopulationUtils.unmodifiablePlan(p.getSelectedPlan()), 
 										this.simulation,
 										this.tripRouter,
 										this.manager); 
+		agent.scheduleNextCarsharingLeg();
 		return agent;
 	}
 }
@@ -45,6 +45,10 @@ public abstract class CarsharingMobsimHandle implements MobsimEngine, DepartureH
 	
 	@Override
 	public void doSimStep(double time) {
+		this.m.booking().updateAvailabilityIndex();
+		if(this.m.getConfig().isTravelTimeMatrix()) {
+			this.m.travelTimes().refresh(time);
+		}
 		if(this.relocation.isActivated()) {
 			this.relocation.updateRelocationList((int)time);
 			this.relocationEventsQueue.addAll(this.relocation.relocationList((int)time));
@@ -52,6 +56,16 @@ public abstract class CarsharingMobsimHandle implements MobsimEngine, DepartureH
 				handleRelocationEvents(time);
 			}
 		}
+		if(this.m.getConfig().getReservationHoldTime() > 0) {
+			this.m.booking().expireReservations(time);
+		}
+		if(this.m.getConfig().isSpeculativeOffers()) {
+			this.m.booking().startScheduledOffers(time);
+		}
+		if(this.m.getConfig().isBatchBooking()) {
+			// the activity engine has ended the activities of this second, book the departures of the next one
+			this.m.booking().processScheduledBookings(time);
+		}
 		for(CarsharingDataProvider d : this.collector.getAllModules()) {
 			this.collector.addLog(d, time);
 		}
@@ -0,0 +1,455 @@
+package org.matsim.contrib.gcs.router;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.contrib.gcs.router.CarsharingRouterUtils.RouteData;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.LinkNetworkRouteImpl;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.router.util.TravelTime;
+
+/**
+ * Fastest paths over the car network, with time dependent link travel times. The network is kept in flat arrays,
+ * searches run from the end of the origin link to the start node of the destination links.
+ * Times and distances are measured as in {@link CarsharingRouterUtils#calcTCC}, up to the end of the destination link.
+ *
+ * Point to point routes are searched with A*, landmarks and triangle inequality (ALT) once the landmarks are prepared:
+ * lower bounds of the travel times to and from every landmark, from the smallest link travel time over the time bins.
+ * Every thread has its own search state, searches can run concurrently.
+ */
+public class CarsharingFastestPaths {
+
+	private final Map<Id<Link>, Integer> linkIndex;
+	private final Link[] links;
+	private final double[] length;
+	private final int[] linkFrom;
+	private final int[] linkTo;
+	private final int[] outStart;
+	private final int[] outLink;
+	private final int[] inStart;
+	private final int[] inLink;
+	private final int nodes;
+	private final ThreadLocal<Search> search;
+	private volatile Landmarks landmarks;
+
+	public CarsharingFastestPaths(Network network) {
+		Map<Id<Node>, Integer> nodeIndex = new HashMap<Id<Node>, Integer>(2 * network.getNodes().size());
+		for(Node n : network.getNodes().values()) {
+			nodeIndex.put(n.getId(), nodeIndex.size());
+		}
+		this.nodes = nodeIndex.size();
+		this.links = network.getLinks().values().toArray(new Link[0]);
+		this.linkIndex = new HashMap<Id<Link>, Integer>(2 * this.links.length);
+		this.length = new double[this.links.length];
+		this.linkFrom = new int[this.links.length];
+		this.linkTo = new int[this.links.length];
+		this.outStart = new int[this.nodes + 1];
+		this.inStart = new int[this.nodes + 1];
+		for(int i = 0; i < this.links.length; i++) {
+			this.linkIndex.put(this.links[i].getId(), i);
+			this.length[i] = this.links[i].getLength();
+			this.linkFrom[i] = nodeIndex.get(this.links[i].getFromNode().getId());
+			this.linkTo[i] = nodeIndex.get(this.links[i].getToNode().getId());
+			this.outStart[this.linkFrom[i] + 1]++;
+			this.inStart[this.linkTo[i] + 1]++;
+		}
+		for(int i = 0; i < this.nodes; i++) {
+			this.outStart[i + 1] += this.outStart[i];
+			this.inStart[i + 1] += this.inStart[i];
+		}
+		this.outLink = new int[this.links.length];
+		this.inLink = new int[this.links.length];
+		int[] outFill = Arrays.copyOf(this.outStart, this.nodes);
+		int[] inFill = Arrays.copyOf(this.inStart, this.nodes);
+		for(int i = 0; i < this.links.length; i++) {
+			this.outLink[outFill[this.linkFrom[i]]++] = i;
+			this.inLink[inFill[this.linkTo[i]]++] = i;
+		}
+		this.search = new ThreadLocal<Search>() {
+			@Override
+			protected Search initialValue() {
+				return new Search(nodes);
+			}
+		};
+		this.landmarks = null;
+	}
+
+	public boolean contains(Id<Link> link) {
+		return this.linkIndex.containsKey(link);
+	}
+
+	/**
+	 *
+	 * @param o origin link
+	 * @param ds destination links
+	 * @param deptime
+	 * @param tt
+	 * @param offset interaction offset of the route data
+	 * @return drive time and distance without path to each destination, in order, <code>null</code> if it is not reachable
+	 */
+	public RouteData[] calc(Id<Link> o, List<Id<Link>> ds, double deptime, TravelTime tt, int offset) {
+		RouteData[] routes = new RouteData[ds.size()];
+		Integer ol = this.linkIndex.get(o);
+		if(ol == null) return routes;
+		Search s = this.search.get();
+		s.start();
+		int remaining = 0;
+		int[] targets = new int[ds.size()];
+		for(int i = 0; i < ds.size(); i++) {
+			Integer dl = this.linkIndex.get(ds.get(i));
+			targets[i] = (dl == null) ? -1 : dl;
+			if(dl != null && dl.intValue() != ol.intValue() && s.target(this.linkFrom[dl])) remaining++;
+		}
+
+		// fastest path tree, until every destination start node is settled
+		int origin = this.linkTo[ol];
+		s.reach(origin, deptime, 0, -1);
+		s.heap.add(origin, deptime);
+		while(remaining > 0 && !s.heap.isEmpty()) {
+			int n = s.heap.poll();
+			if(s.settled(n)) continue; // stale entry
+			s.settle(n);
+			if(s.isTarget(n)) remaining--;
+			this.relax(s, n, tt, null, -1);
+		}
+
+		for(int i = 0; i < ds.size(); i++) {
+			if(targets[i] < 0) continue;
+			routes[i] = this.routeData(s, ol, targets[i], deptime, tt, offset);
+		}
+		return routes;
+	}
+
+	/**
+	 * Point to point fastest path, with the landmarks when they are prepared
+	 * @param o origin link
+	 * @param d destination link
+	 * @param deptime
+	 * @param tt
+	 * @param offset interaction offset of the route data
+	 * @return drive time, distance and path as a single cs_drive leg, <code>null</code> if d is not reachable from o
+	 */
+	public RouteData route(Id<Link> o, Id<Link> d, double deptime, TravelTime tt, int offset) {
+		Integer ol = this.linkIndex.get(o);
+		Integer dl = this.linkIndex.get(d);
+		if(ol == null || dl == null) return null;
+		Search s = this.search.get();
+		s.start();
+		Landmarks lm = this.landmarks;
+		int origin = this.linkTo[ol];
+		int target = this.linkFrom[dl];
+		if(dl.intValue() != ol.intValue()) {
+			s.reach(origin, deptime, 0, -1);
+			s.heap.add(origin, deptime + this.estimate(lm, origin, target));
+			while(!s.heap.isEmpty()) {
+				int n = s.heap.poll();
+				if(s.settled(n)) continue; // stale entry
+				s.settle(n);
+				if(n == target) break;
+				this.relax(s, n, tt, lm, target);
+			}
+		}
+		RouteData rd = this.routeData(s, ol, dl, deptime, tt, offset);
+		if(rd == null) return null;
+
+		// path, back from the destination along the predecessor links
+		List<Id<Link>> path = new ArrayList<Id<Link>>();
+		if(dl.intValue() != ol.intValue()) {
+			for(int l = s.pred[target]; l >= 0; l = s.pred[this.linkFrom[l]]) {
+				path.add(this.links[l].getId());
+			}
+			Collections.reverse(path);
+		}
+		NetworkRoute nr = new LinkNetworkRouteImpl(o, path, d);
+		nr.setTravelTime(rd.time);
+		nr.setDistance(rd.distance);
+		Leg leg = PopulationUtils.createLeg(CarsharingRouterUtils.cs_drive);
+		leg.setDepartureTime(deptime);
+		leg.setTravelTime(rd.time);
+		leg.setRoute(nr);
+		List<PlanElement> trip = new ArrayList<PlanElement>();
+		trip.add(leg);
+		rd.path = trip;
+		return rd;
+	}
+
+	/**
+	 * Select the landmarks, farthest first, and compute the lower bounds of the travel times to and from them.
+	 * The lower bound of a link is the smallest of its free speed travel time and its travel times at the start of every bin.
+	 * @param count number of landmarks, 0 drops them
+	 * @param tt
+	 * @param binSize
+	 * @param horizon
+	 */
+	public void prepareLandmarks(int count, TravelTime tt, int binSize, int horizon) {
+		count = Math.min(count, this.nodes);
+		if(count <= 0) {
+			this.landmarks = null;
+			return;
+		}
+		double[] lower = new double[this.links.length];
+		for(int l = 0; l < this.links.length; l++) {
+			lower[l] = this.length[l] / this.links[l].getFreespeed();
+			for(int t = 0; t < horizon; t += binSize) {
+				lower[l] = Math.min(lower[l], tt.getLinkTravelTime(this.links[l], t, null, null));
+			}
+		}
+		Landmarks lm = new Landmarks(count, this.nodes);
+		float[] closest = new float[this.nodes];
+		Arrays.fill(closest, Float.POSITIVE_INFINITY);
+		float[] seed = this.bounds(0, true, lower);
+		int next = farthest(seed, seed);
+		for(int k = 0; k < count && next >= 0; k++) {
+			float[] from = this.bounds(next, true, lower);
+			float[] to = this.bounds(next, false, lower);
+			System.arraycopy(from, 0, lm.from, k * this.nodes, this.nodes);
+			System.arraycopy(to, 0, lm.to, k * this.nodes, this.nodes);
+			lm.count = k + 1;
+			for(int n = 0; n < this.nodes; n++) {
+				closest[n] = Math.min(closest[n], from[n] + to[n]);
+			}
+			next = farthest(closest, seed);
+		}
+		this.landmarks = lm;
+	}
+
+	/**
+	 *
+	 * @return number of prepared landmarks
+	 */
+	public int landmarks() {
+		Landmarks lm = this.landmarks;
+		return (lm == null) ? 0 : lm.count;
+	}
+
+	// *********
+
+	private void relax(Search s, int n, TravelTime tt, Landmarks lm, int target) {
+		double at = s.arrival[n];
+		for(int a = this.outStart[n]; a < this.outStart[n + 1]; a++) {
+			int l = this.outLink[a];
+			int v = this.linkTo[l];
+			if(s.settled(v)) continue;
+			double next = at + tt.getLinkTravelTime(this.links[l], at, null, null);
+			if(!s.reached(v) || next < s.arrival[v]) {
+				s.reach(v, next, s.length[n] + this.length[l], l);
+				s.heap.add(v, next + this.estimate(lm, v, target));
+			}
+		}
+	}
+
+	private RouteData routeData(Search s, int ol, int dl, double deptime, TravelTime tt, int offset) {
+		double at, distance;
+		if(dl == ol) {
+			at = deptime;
+			distance = 0;
+		} else if(s.reached(this.linkFrom[dl])) {
+			at = s.arrival[this.linkFrom[dl]];
+			distance = s.length[this.linkFrom[dl]];
+		} else {
+			return null;
+		}
+		at += tt.getLinkTravelTime(this.links[dl], at, null, null);
+		RouteData rd = new RouteData();
+		rd.offset = offset;
+		rd.time = (int) (at - deptime);
+		rd.distance = distance + this.length[dl];
+		return rd;
+	}
+
+	/**
+	 * @return lower bound of the travel time from n to target, 0 without landmarks
+	 */
+	private double estimate(Landmarks lm, int n, int target) {
+		if(lm == null) return 0;
+		double h = 0;
+		for(int k = 0; k < lm.count; k++) {
+			int i = k * this.nodes;
+			float toN = lm.to[i + n], toT = lm.to[i + target];
+			if(toN != Float.POSITIVE_INFINITY && toT != Float.POSITIVE_INFINITY) h = Math.max(h, toN - toT);
+			float fromN = lm.from[i + n], fromT = lm.from[i + target];
+			if(fromN != Float.POSITIVE_INFINITY && fromT != Float.POSITIVE_INFINITY) h = Math.max(h, fromT - fromN);
+		}
+		return h;
+	}
+
+	/**
+	 * @return lower bounds of the travel times from the source, or to it when not forward, infinite if not reachable
+	 */
+	private float[] bounds(int source, boolean forward, double[] lower) {
+		float[] bound = new float[this.nodes];
+		Arrays.fill(bound, Float.POSITIVE_INFINITY);
+		boolean[] settled = new boolean[this.nodes];
+		Heap heap = new Heap();
+		bound[source] = 0;
+		heap.add(source, 0);
+		while(!heap.isEmpty()) {
+			int n = heap.poll();
+			if(settled[n]) continue;
+			settled[n] = true;
+			int start = forward ? this.outStart[n] : this.inStart[n];
+			int end = forward ? this.outStart[n + 1] : this.inStart[n + 1];
+			for(int a = start; a < end; a++) {
+				int l = forward ? this.outLink[a] : this.inLink[a];
+				int v = forward ? this.linkTo[l] : this.linkFrom[l];
+				float next = (float) (bound[n] + lower[l]);
+				if(next < bound[v]) {
+					bound[v] = next;
+					heap.add(v, next);
+				}
+			}
+		}
+		return bound;
+	}
+
+	/**
+	 * @return the node with the largest positive value among the ones reachable from the seed, -1 if none is left
+	 */
+	private static int farthest(float[] values, float[] seed) {
+		int best = -1;
+		for(int n = 0; n < values.length; n++) {
+			if(seed[n] == Float.POSITIVE_INFINITY || !(values[n] > 0)) continue;
+			if(best < 0 || values[n] > values[best]) best = n;
+		}
+		return best;
+	}
+
+	/**
+	 * Lower bounds of the travel times from and to every landmark, indexed by [landmark][node]
+	 */
+	private static final class Landmarks {
+		final float[] from;
+		final float[] to;
+		int count;
+
+		Landmarks(int count, int nodes) {
+			this.from = new float[count * nodes];
+			this.to = new float[count * nodes];
+			this.count = 0;
+		}
+	}
+
+	/**
+	 * Search state, node arrays are reused across searches and told apart by a stamp
+	 */
+	private static final class Search {
+		final double[] arrival;
+		final double[] length;
+		final int[] pred;
+		final int[] reached;
+		final int[] settled;
+		final int[] target;
+		final Heap heap;
+		int stamp;
+
+		Search(int nodes) {
+			this.arrival = new double[nodes];
+			this.length = new double[nodes];
+			this.pred = new int[nodes];
+			this.reached = new int[nodes];
+			this.settled = new int[nodes];
+			this.target = new int[nodes];
+			this.heap = new Heap();
+			this.stamp = 0;
+		}
+
+		void start() {
+			this.stamp++;
+			this.heap.clear();
+		}
+
+		boolean target(int n) {
+			if(this.target[n] == this.stamp) return false;
+			this.target[n] = this.stamp;
+			return true;
+		}
+
+		boolean isTarget(int n) {
+			return this.target[n] == this.stamp;
+		}
+
+		boolean reached(int n) {
+			return this.reached[n] == this.stamp;
+		}
+
+		void reach(int n, double at, double distance, int link) {
+			this.reached[n] = this.stamp;
+			this.arrival[n] = at;
+			this.length[n] = distance;
+			this.pred[n] = link;
+		}
+
+		boolean settled(int n) {
+			return this.settled[n] == this.stamp;
+		}
+
+		void settle(int n) {
+			this.settled[n] = this.stamp;
+		}
+	}
+
+	/**
+	 * Binary min heap of nodes on primitive arrays, entries are not updated but added again
+	 */
+	private static final class Heap {
+		private int[] node = new int[64];
+		private double[] key = new double[64];
+		private int size = 0;
+
+		void clear() {
+			this.size = 0;
+		}
+
+		boolean isEmpty() {
+			return this.size == 0;
+		}
+
+		void add(int n, double k) {
+			if(this.size == this.node.length) {
+				this.node = Arrays.copyOf(this.node, this.size * 2);
+				this.key = Arrays.copyOf(this.key, this.size * 2);
+			}
+			int i = this.size++;
+			while(i > 0) {
+				int p = (i - 1) >>> 1;
+				if(this.key[p] <= k) break;
+				this.node[i] = this.node[p];
+				this.key[i] = this.key[p];
+				i = p;
+			}
+			this.node[i] = n;
+			this.key[i] = k;
+		}
+
+		int poll() {
+			int top = this.node[0];
+			int n = this.node[--this.size];
+			double k = this.key[this.size];
+			int i = 0;
+			while(true) {
+				int c = 2 * i + 1;
+				if(c >= this.size) break;
+				if(c + 1 < this.size && this.key[c + 1] < this.key[c]) c++;
+				if(this.key[c] >= k) break;
+				this.node[i] = this.node[c];
+				this.key[i] = this.key[c];
+				i = c;
+			}
+			this.node[i] = n;
+			this.key[i] = k;
+			return top;
+		}
+	}
+
+}
@@ -0,0 +1,178 @@
+package org.matsim.contrib.gcs.router;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.contrib.gcs.carsharing.CarsharingManager;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingStationMobsim;
+import org.matsim.core.network.NetworkUtils;
+
+/**
+ * Nearest stations of the activity locations, so that the station tree is searched once per location and not once per request.
+ * An entry keeps the nearest station within the access search radius, and the two nearest non floating stations
+ * within the egress search radius, the second one being the answer when the first one is the excluded departure station.
+ *
+ * Entries are keyed by coordinate, they are built at setup for the activities of the selected plans and on the fly for the other locations.
+ * The stations are all added at setup before the cache is built, the entries do not follow later changes of the stations.
+ */
+public class CarsharingNearestStationCache {
+
+	static final class Entry {
+		final CarsharingStationMobsim departure;
+		final double departureDistance;
+		final CarsharingStationMobsim first;
+		final double firstDistance;
+		final CarsharingStationMobsim second;
+		final double secondDistance;
+
+		Entry(CarsharingStationMobsim departure, double departureDistance,
+				CarsharingStationMobsim first, double firstDistance,
+				CarsharingStationMobsim second, double secondDistance) {
+			this.departure = departure;
+			this.departureDistance = departureDistance;
+			this.first = first;
+			this.firstDistance = firstDistance;
+			this.second = second;
+			this.secondDistance = secondDistance;
+		}
+
+		Entry with(CarsharingStationMobsim s, double d, boolean departure, boolean arrival) {
+			CarsharingStationMobsim dep = this.departure, s1 = this.first, s2 = this.second;
+			double depd = this.departureDistance, d1 = this.firstDistance, d2 = this.secondDistance;
+			if(s == dep) departure = false;
+			if(s == s1 || s == s2) arrival = false;
+			if(departure && (dep == null || d < depd)) {
+				dep = s; depd = d;
+			}
+			if(arrival) {
+				if(s1 == null || d < d1) {
+					s2 = s1; d2 = d1;
+					s1 = s; d1 = d;
+				} else if(s2 == null || d < d2) {
+					s2 = s; d2 = d;
+				}
+			}
+			return new Entry(dep, depd, s1, d1, s2, d2);
+		}
+	}
+
+	private static final Entry EMPTY = new Entry(null, 0, null, 0, null, 0);
+
+	private final CarsharingManager m;
+	private final ConcurrentHashMap<Coord, Entry> entries;
+	private double departureRadius;
+	private double arrivalRadius;
+	private int version;
+
+	public CarsharingNearestStationCache(CarsharingManager m) {
+		this.m = m;
+		this.entries = new ConcurrentHashMap<Coord, Entry>();
+		this.clear();
+	}
+
+	/**
+	 * Drop all the entries and build the ones of the activities of the selected plans, on <code>threads</code> threads
+	 * @param population
+	 * @param threads
+	 */
+	public void build(Population population, int threads) {
+		this.clear();
+		LinkedHashSet<Coord> coords = new LinkedHashSet<Coord>();
+		for(Person p : population.getPersons().values()) {
+			if(p.getSelectedPlan() == null) continue;
+			for(PlanElement pe : p.getSelectedPlan().getPlanElements()) {
+				if(pe instanceof Activity && ((Activity) pe).getCoord() != null) {
+					coords.add(((Activity) pe).getCoord());
+				}
+			}
+		}
+		final List<Coord> list = new ArrayList<Coord>(coords);
+		threads = Math.max(1, Math.min(threads, list.size()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for(int t = 0; t < threads; t++) {
+				final int from = (int) ((long) list.size() * t / threads);
+				final int to = (int) ((long) list.size() * (t + 1) / threads);
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for(Coord c : list.subList(from, to)) {
+							entries.put(c, compute(c));
+						}
+						return null;
+					}
+				});
+			}
+			for(Future<Void> f : executor.invokeAll(tasks)) {
+				f.get();
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException("Failed to build the nearest station cache", e);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 *
+	 * @param c
+	 * @return the nearest stations of the location, computed now if the location was not seen yet
+	 */
+	Entry get(Coord c) {
+		Entry e = this.entries.get(c);
+		if(e != null) return e;
+		int v;
+		synchronized(this) { v = this.version; }
+		e = compute(c);
+		synchronized(this) {
+			// the cache cleared in the meantime, the entry may come from the previous radii, do not keep it
+			if(v == this.version) {
+				this.entries.putIfAbsent(c, e);
+			}
+		}
+		return e;
+	}
+
+	public int size() {
+		return this.entries.size();
+	}
+
+	public synchronized void clear() {
+		this.entries.clear();
+		this.departureRadius = m.getConfig().getSearchDistance()/m.getConfig().getAccessWalkCalcRoute().getBeelineDistanceFactor();
+		this.arrivalRadius = m.getConfig().getSearchDistance()/m.getConfig().getEgressWalkCalcRoute().getBeelineDistanceFactor();
+		this.version++;
+	}
+
+	// *********
+
+	private Entry compute(Coord c) {
+		Entry e = EMPTY;
+		double radius = Math.max(this.departureRadius, this.arrivalRadius);
+		Collection<CarsharingStationMobsim> stations = this.m.getStations().index().getDisk(c.getX(), c.getY(), radius);
+		for(CarsharingStationMobsim station : stations) {
+			double d = NetworkUtils.getEuclideanDistance(c, station.facility().getCoord());
+			boolean inDeparture = d <= this.departureRadius;
+			boolean inArrival = !station.getType().equals("FLOATING") && d <= this.arrivalRadius;
+			if(inDeparture || inArrival) {
+				e = e.with(station, d, inDeparture, inArrival);
+			}
+		}
+		return e;
+	}
+
+}
@@ -1,7 +1,6 @@
 package org.matsim.contrib.gcs.router;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 
 import org.matsim.api.core.v01.Coord;
@@ -12,7 +11,10 @@ import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.PlanElement;
 import org.matsim.contrib.gcs.carsharing.CarsharingManager;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingSpatialIndex;
 import org.matsim.contrib.gcs.carsharing.core.CarsharingStationMobsim;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingStations;
+import org.matsim.contrib.gcs.carsharing.core.KdTree;
 import org.matsim.contrib.gcs.config.CarsharingConfigGroup;
 import org.matsim.contrib.gcs.replanning.CarsharingPlanModeCst;
 import org.matsim.contrib.gcs.router.CarsharingRouterUtils.RouteData;
@@ -23,22 +25,23 @@ import org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutilityF
 import org.matsim.core.router.util.DijkstraFactory;
 import org.matsim.core.router.util.LeastCostPathCalculatorFactory;
 import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
-import org.matsim.core.utils.collections.QuadTree;
 import org.matsim.facilities.Facility;
 
 public class CarsharingNearestStationRouterModule extends CarsharingDefaultRouterModule {
 
 	final double searchDistance;
-	final QuadTree<CarsharingStationMobsim> qt;
+	final CarsharingSpatialIndex<CarsharingStationMobsim> qt;
 	final CarsharingManager m;
 	final CarsharingConfigGroup cs_conf;
+	final CarsharingNearestStationCache cache;
 	
 	public CarsharingNearestStationRouterModule(Scenario scenario, CarsharingManager manager, String cssMode) {
 		super(scenario, manager, cssMode);
 		this.searchDistance = manager.getConfig().getSearchDistance();
-		this.qt = manager.getStations().qtree();
+		this.qt = manager.getStations().index();
 		this.m = manager;
 		this.cs_conf = m.getConfig();
+		this.cache = manager.nearestStations();
 	}
 	
 	
@@ -144,16 +147,23 @@ public class CarsharingNearestStationRouterModule extends CarsharingDefaultRoute
 	
 	public CarsharingLocationInfo getNearestStationToDeparture(Coord fromCoord) {
 		CarsharingLocationInfo pickupLocation = new CarsharingLocationInfo(null);
+		CarsharingNearestStationCache.Entry e = this.cache.get(fromCoord);
+		CarsharingStationMobsim station = e.departure;
+		double access_euc_dist = e.departureDistance;
+		// free floating vehicles move, their spots are not cached
 		double euc_distance = manager.getConfig().getSearchDistance()/this.cs_conf.getAccessWalkCalcRoute().getBeelineDistanceFactor();
-		Collection<CarsharingStationMobsim> stations = manager.getStations().qtree().getDisk(fromCoord.getX(), fromCoord.getY(), euc_distance);
-		for(CarsharingStationMobsim station: stations) {
-			final double access_euc_dist = NetworkUtils.getEuclideanDistance(fromCoord, station.facility().getCoord());
-			if(pickupLocation.station == null || pickupLocation.distance > access_euc_dist) {
-				pickupLocation.station = station;
-				pickupLocation.distance = CarsharingUtils.distanceBeeline(access_euc_dist, this.cs_conf.getEgressWalkCalcRoute());
-				pickupLocation.traveltime = CarsharingUtils.travelTimeBeeline(access_euc_dist, this.cs_conf.getEgressWalkCalcRoute());
+		for(CarsharingStationMobsim spot : manager.floating().nearest(fromCoord, 1, euc_distance, 0)) {
+			double d = NetworkUtils.getEuclideanDistance(fromCoord, spot.facility().getCoord());
+			if(station == null || d < access_euc_dist) {
+				station = spot;
+				access_euc_dist = d;
 			}
 		}
+		if(station != null) {
+			pickupLocation.station = station;
+			pickupLocation.distance = CarsharingUtils.distanceBeeline(access_euc_dist, this.cs_conf.getEgressWalkCalcRoute());
+			pickupLocation.traveltime = CarsharingUtils.travelTimeBeeline(access_euc_dist, this.cs_conf.getEgressWalkCalcRoute());
+		}
 		return pickupLocation;
 	}
 
@@ -173,19 +183,133 @@ public class CarsharingNearestStationRouterModule extends CarsharingDefaultRoute
 	
 	public CarsharingLocationInfo getNearestStationToArrival(Coord toCoord, CarsharingStationMobsim s_toexclude) {
 		CarsharingLocationInfo dropoffLocation = new CarsharingLocationInfo(null);
+		CarsharingNearestStationCache.Entry e = this.cache.get(toCoord);
+		CarsharingStationMobsim station = e.first;
+		double egress_euc_dist = e.firstDistance;
+		if(station != null && station.equals(s_toexclude)) {
+			station = e.second;
+			egress_euc_dist = e.secondDistance;
+		}
+		if(station != null) {
+			dropoffLocation.station = station;
+			dropoffLocation.distance = CarsharingUtils.distanceBeeline(egress_euc_dist, this.cs_conf.getEgressWalkCalcRoute());
+			dropoffLocation.traveltime = CarsharingUtils.travelTimeBeeline(egress_euc_dist, this.cs_conf.getEgressWalkCalcRoute());
+		}
+		return dropoffLocation;
+	}
+	
+	/**
+	 * 
+	 * @param fromCoord
+	 * @param k
+	 * @return the k nearest stations or free floating spots within the search distance, closest first
+	 */
+	public List<CarsharingLocationInfo> getNearestStationsToDeparture(Coord fromCoord, int k) {
+		List<CarsharingLocationInfo> locations = new ArrayList<CarsharingLocationInfo>();
+		if(k == 1) {
+			CarsharingLocationInfo pickupLocation = this.getNearestStationToDeparture(fromCoord);
+			if(pickupLocation.station != null) locations.add(pickupLocation);
+			return locations;
+		}
+		double euc_distance = manager.getConfig().getSearchDistance()/this.cs_conf.getAccessWalkCalcRoute().getBeelineDistanceFactor();
+		return this.merge(fromCoord, k,
+				manager.getStations().kdtree().nearest(fromCoord.getX(), fromCoord.getY(), k, euc_distance, null),
+				manager.floating().nearest(fromCoord, k, euc_distance, 0));
+	}
+	
+	/**
+	 * 
+	 * @param toCoord
+	 * @param k
+	 * @param s_toexclude
+	 * @return the k nearest non floating stations within the search distance, closest first
+	 */
+	public List<CarsharingLocationInfo> getNearestStationsToArrival(Coord toCoord, int k, final CarsharingStationMobsim s_toexclude) {
+		List<CarsharingLocationInfo> locations = new ArrayList<CarsharingLocationInfo>();
+		if(k == 1) {
+			CarsharingLocationInfo dropoffLocation = this.getNearestStationToArrival(toCoord, s_toexclude);
+			if(dropoffLocation.station != null) locations.add(dropoffLocation);
+			return locations;
+		}
 		double euc_distance = manager.getConfig().getSearchDistance()/this.cs_conf.getEgressWalkCalcRoute().getBeelineDistanceFactor();
-		Collection<CarsharingStationMobsim> stations = manager.getStations().qtree().getDisk(
-				toCoord.getX(), toCoord.getY(), euc_distance);
-		for(CarsharingStationMobsim station: stations) {
-			if(station.equals(s_toexclude) || station.getType().equals("FLOATING")) continue;
-			final double egress_euc_dist = NetworkUtils.getEuclideanDistance(toCoord, station.facility().getCoord());
-			if(dropoffLocation.station == null || dropoffLocation.distance > egress_euc_dist) {
-				dropoffLocation.station = station;
-				dropoffLocation.distance = CarsharingUtils.distanceBeeline(egress_euc_dist, this.cs_conf.getEgressWalkCalcRoute());
-				dropoffLocation.traveltime = CarsharingUtils.travelTimeBeeline(egress_euc_dist, this.cs_conf.getEgressWalkCalcRoute());
+		KdTree.Filter<CarsharingStationMobsim> filter = new KdTree.Filter<CarsharingStationMobsim>() {
+			@Override
+			public boolean accept(CarsharingStationMobsim station) {
+				return !station.equals(s_toexclude) && !station.getType().equals("FLOATING");
 			}
+		};
+		for(CarsharingStationMobsim station : manager.getStations().kdtree().nearest(toCoord.getX(), toCoord.getY(), k, euc_distance, filter)) {
+			locations.add(this.location(toCoord, station));
 		}
-		return dropoffLocation;
+		return locations;
+	}
+	
+	/**
+	 * 
+	 * @param fromCoord
+	 * @param k
+	 * @param nbrOfVeh
+	 * @return the k nearest stations or free floating spots within the search distance with at least nbrOfVeh available vehicles, closest first
+	 */
+	public List<CarsharingLocationInfo> getNearestAvailableStationsToDeparture(Coord fromCoord, int k, final int nbrOfVeh) {
+		double euc_distance = manager.getConfig().getSearchDistance()/this.cs_conf.getAccessWalkCalcRoute().getBeelineDistanceFactor();
+		// the index is updated once per time step, stations emptied since are passed over
+		KdTree.Filter<CarsharingStationMobsim> filter = new KdTree.Filter<CarsharingStationMobsim>() {
+			@Override
+			public boolean accept(CarsharingStationMobsim station) {
+				return manager.booking().vehicleAvailability(station) >= nbrOfVeh;
+			}
+		};
+		return this.merge(fromCoord, k,
+				manager.getStations().kdtree().nearest(fromCoord.getX(), fromCoord.getY(), k, euc_distance, 
+						filter, CarsharingStations.VEHICLE_AVAILABILITY, nbrOfVeh),
+				manager.floating().nearest(fromCoord, k, euc_distance, nbrOfVeh));
+	}
+	
+	/**
+	 * 
+	 * @param toCoord
+	 * @param k
+	 * @param nbrOfVeh
+	 * @param s_toexclude
+	 * @return the k nearest non floating stations within the search distance with at least nbrOfVeh free parking slots, closest first
+	 */
+	public List<CarsharingLocationInfo> getNearestAvailableStationsToArrival(Coord toCoord, int k, final int nbrOfVeh, final CarsharingStationMobsim s_toexclude) {
+		List<CarsharingLocationInfo> locations = new ArrayList<CarsharingLocationInfo>();
+		double euc_distance = manager.getConfig().getSearchDistance()/this.cs_conf.getEgressWalkCalcRoute().getBeelineDistanceFactor();
+		// the index is updated once per time step, stations filled since are passed over
+		KdTree.Filter<CarsharingStationMobsim> filter = new KdTree.Filter<CarsharingStationMobsim>() {
+			@Override
+			public boolean accept(CarsharingStationMobsim station) {
+				return !station.equals(s_toexclude) && !station.getType().equals("FLOATING") && 
+						manager.booking().parkingAvailability(station) >= nbrOfVeh;
+			}
+		};
+		for(CarsharingStationMobsim station : manager.getStations().kdtree().nearest(toCoord.getX(), toCoord.getY(), k, euc_distance, 
+				filter, CarsharingStations.PARKING_AVAILABILITY, nbrOfVeh)) {
+			locations.add(this.location(toCoord, station));
+		}
+		return locations;
+	}
+	
+	private List<CarsharingLocationInfo> merge(Coord c, int k, List<CarsharingStationMobsim> stations, List<CarsharingStationMobsim> spots) {
+		List<CarsharingLocationInfo> locations = new ArrayList<CarsharingLocationInfo>();
+		int i = 0, j = 0;
+		while(locations.size() < k && (i < stations.size() || j < spots.size())) {
+			boolean station = j == spots.size() || (i < stations.size() && 
+					NetworkUtils.getEuclideanDistance(c, stations.get(i).facility().getCoord()) <= NetworkUtils.getEuclideanDistance(c, spots.get(j).facility().getCoord()));
+			locations.add(this.location(c, station ? stations.get(i++) : spots.get(j++)));
+		}
+		return locations;
+	}
+	
+	private CarsharingLocationInfo location(Coord c, CarsharingStationMobsim station) {
+		CarsharingLocationInfo location = new CarsharingLocationInfo(null);
+		final double euc_dist = NetworkUtils.getEuclideanDistance(c, station.facility().getCoord());
+		location.station = station;
+		location.distance = CarsharingUtils.distanceBeeline(euc_dist, this.cs_conf.getEgressWalkCalcRoute());
+		location.traveltime = CarsharingUtils.travelTimeBeeline(euc_dist, this.cs_conf.getEgressWalkCalcRoute());
+		return location;
 	}
 	
 	
@@ -199,7 +323,7 @@ public class CarsharingNearestStationRouterModule extends CarsharingDefaultRoute
 			this.traveltime = 0;
 			this.isFloating = floating;
 		}
-		CarsharingLocationInfo(Facility f) {
+		public CarsharingLocationInfo(Facility f) {
 			this(f, false);
 		}
 		public CarsharingStationMobsim station;
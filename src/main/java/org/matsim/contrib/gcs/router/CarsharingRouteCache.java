@@ -0,0 +1,153 @@
+package org.matsim.contrib.gcs.router;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.gcs.carsharing.CarsharingManager;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingDataCollector.CarsharingDataProvider;
+import org.matsim.contrib.gcs.router.CarsharingRouterUtils.RouteData;
+
+/**
+ * Bounded LRU cache of the drives of {@link CarsharingRouterUtils#calcTCC}, keyed by origin link, destination link and
+ * departure time bin: drives between the same links in the same bin share the route of the first one.
+ * The cache is emptied when an iteration starts, with the new travel times.
+ *
+ * Hits, misses and evictions of the iteration are written by the data collector with the other logs.
+ */
+public class CarsharingRouteCache implements CarsharingDataProvider {
+
+	private static final class Key {
+		final Id<Link> o;
+		final Id<Link> d;
+		final int bin;
+		Key(Id<Link> o, Id<Link> d, int bin) {
+			this.o = o;
+			this.d = d;
+			this.bin = bin;
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Key)) return false;
+			Key k = (Key) obj;
+			return this.bin == k.bin && this.o.equals(k.o) && this.d.equals(k.d);
+		}
+		@Override
+		public int hashCode() {
+			return (31 * this.o.hashCode() + this.d.hashCode()) * 31 + this.bin;
+		}
+	}
+
+	private final CarsharingManager m;
+	private final LinkedHashMap<Key, RouteData> routes;
+	private int iteration;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public CarsharingRouteCache(CarsharingManager m) {
+		this.m = m;
+		this.routes = new LinkedHashMap<Key, RouteData>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, RouteData> eldest) {
+				if(size() <= CarsharingRouteCache.this.m.getConfig().getRouteCacheSize()) return false;
+				evictions++;
+				return true;
+			}
+		};
+		this.reset(0);
+	}
+
+	/**
+	 *
+	 * @param o
+	 * @param d
+	 * @param deptime
+	 * @return a copy of the cached drive, <code>null</code> on a miss
+	 */
+	public synchronized RouteData get(Id<Link> o, Id<Link> d, double deptime) {
+		RouteData rd = this.routes.get(new Key(o, d, this.bin(deptime)));
+		if(rd == null) {
+			this.misses++;
+			return null;
+		}
+		this.hits++;
+		return copy(rd);
+	}
+
+	/**
+	 * Cache a copy of the drive, callers may change theirs
+	 * @param o
+	 * @param d
+	 * @param deptime
+	 * @param rd
+	 */
+	public synchronized void put(Id<Link> o, Id<Link> d, double deptime, RouteData rd) {
+		this.routes.put(new Key(o, d, this.bin(deptime)), copy(rd));
+	}
+
+	public synchronized int size() {
+		return this.routes.size();
+	}
+
+	@Override
+	public synchronized Collection<Map<String, String>> getLogRows(double time) {
+		ArrayList<Map<String, String>> rows = new ArrayList<Map<String, String>>();
+		if(!Double.isNaN(time)) return rows; // once per iteration, when the logs are written
+		Map<String, String> logRow = new HashMap<String, String>();
+		logRow.put("iteration", String.valueOf(this.iteration));
+		logRow.put("hits", String.valueOf(this.hits));
+		logRow.put("misses", String.valueOf(this.misses));
+		logRow.put("evictions", String.valueOf(this.evictions));
+		logRow.put("size", String.valueOf(this.routes.size()));
+		logRow.put("capacity", String.valueOf(this.m.getConfig().getRouteCacheSize()));
+		logRow.put("bin", String.valueOf(this.m.getConfig().getRouteCacheBin()));
+		rows.add(logRow);
+		return rows;
+	}
+
+	@Override
+	public String getLogFile() {
+		return this.m.getConfig().getRouteCacheLogFile();
+	}
+
+	@Override
+	public String getLogType() {
+		return "route_cache";
+	}
+
+	@Override
+	public String getModuleName() {
+		return this.getClass().getSimpleName();
+	}
+
+	@Override
+	public synchronized void reset(int iteration) {
+		this.iteration = iteration;
+		this.routes.clear();
+		this.hits = 0;
+		this.misses = 0;
+		this.evictions = 0;
+	}
+
+	// *********
+
+	private int bin(double deptime) {
+		return (int) (deptime / this.m.getConfig().getRouteCacheBin());
+	}
+
+	private static RouteData copy(RouteData rd) {
+		RouteData c = new RouteData();
+		c.path = rd.path;
+		c.distance = rd.distance;
+		c.time = rd.time;
+		c.offset = rd.offset;
+		return c;
+	}
+
+}
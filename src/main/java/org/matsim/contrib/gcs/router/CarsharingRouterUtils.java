@@ -1,6 +1,11 @@
 package org.matsim.contrib.gcs.router;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
@@ -8,6 +13,7 @@ import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.PlanElement;
 import org.matsim.contrib.gcs.carsharing.CarsharingManager;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingStationMobsim;
 import org.matsim.core.population.routes.NetworkRoute;
 import org.matsim.facilities.Facility;
 
@@ -32,20 +38,100 @@ public final class CarsharingRouterUtils {
 		public int offset = 0;
 	}
 	
+	/**
+	 * Drive between two facilities, routed by the cs_drive module of the trip router, time and distance from the
+	 * collected travel times along the route. With landmarks, path, time and distance come from a single fastest path
+	 * search over the car network instead, see {@link CarsharingFastestPaths#route}, facilities off the car network
+	 * are still routed by the trip router. Drives are shared through the route cache when it is enabled, see {@link CarsharingRouteCache}.
+	 * @param m
+	 * @param o
+	 * @param d
+	 * @param deptime
+	 * @param p
+	 * @return
+	 */
 	public static RouteData calcTCC(CarsharingManager m, Facility o, Facility d, double deptime, Person p) {
-		RouteData rd = new RouteData();
-		rd.offset = m.getConfig().getInteractionOffset();
-		rd.path = m.router().calcRoute(CarsharingRouterUtils.cs_drive, o, d, deptime, p);
-		NetworkRoute nr = ((NetworkRoute)((Leg)rd.path.get(0)).getRoute());
-		for(Id<Link> linkid : nr.getLinkIds()) {
-			Link tempL = m.getCarNetwork().getLinks().get(linkid);
+		boolean cache = m.getConfig().getRouteCacheSize() > 0;
+		RouteData rd = cache ? m.routeCache().get(o.getLinkId(), d.getLinkId(), deptime) : null;
+		if(rd != null) return rd;
+		if(m.getConfig().getLandmarks() > 0) {
+			rd = m.fastestPaths().route(o.getLinkId(), d.getLinkId(), deptime, m.ttc(), m.getConfig().getInteractionOffset());
+		}
+		if(rd == null) {
+			rd = new RouteData();
+			rd.offset = m.getConfig().getInteractionOffset();
+			rd.path = m.router().calcRoute(CarsharingRouterUtils.cs_drive, o, d, deptime, p);
+			NetworkRoute nr = ((NetworkRoute)((Leg)rd.path.get(0)).getRoute());
+			for(Id<Link> linkid : nr.getLinkIds()) {
+				Link tempL = m.getCarNetwork().getLinks().get(linkid);
+				rd.time += m.ttc().getLinkTravelTime(tempL, deptime + rd.time, null, null);
+				rd.distance += tempL.getLength();
+			}
+			Link tempL = m.getCarNetwork().getLinks().get(nr.getEndLinkId());
 			rd.time += m.ttc().getLinkTravelTime(tempL, deptime + rd.time, null, null);
 			rd.distance += tempL.getLength();
 		}
-		Link tempL = m.getCarNetwork().getLinks().get(d.getLinkId());
-		rd.time += m.ttc().getLinkTravelTime(tempL, deptime + rd.time, null, null);
-		rd.distance += tempL.getLength();
+		if(cache) m.routeCache().put(o.getLinkId(), d.getLinkId(), deptime, rd);
+		return rd;
+	}
+	
+	/**
+	 * Drive time and distance between two stations, without path, from the travel time matrix when it is built, 
+	 * else from a fastest path search over the car network, see {@link CarsharingFastestPaths#calc}. 
+	 * Only stations off the car network, or not reachable over it, are routed, see {@link #calcTCC}, and the path is dropped.
+	 * @param m
+	 * @param o
+	 * @param d
+	 * @param deptime
+	 * @param p
+	 * @return
+	 */
+	public static RouteData estimateTCC(CarsharingManager m, CarsharingStationMobsim o, CarsharingStationMobsim d, double deptime, Person p) {
+		RouteData rd = m.getConfig().isTravelTimeMatrix() ? m.travelTimes().get(o, d, deptime) : null;
+		if(rd == null) {
+			rd = m.fastestPaths().calc(o.facility().getLinkId(), Collections.singletonList(d.facility().getLinkId()), 
+					deptime, m.ttc(), m.getConfig().getInteractionOffset())[0];
+		}
+		if(rd == null) {
+			RouteData routed = calcTCC(m, o.facility(), d.facility(), deptime, p);
+			rd = new RouteData(); // the routed one may be shared by the route cache
+			rd.time = routed.time;
+			rd.distance = routed.distance;
+			rd.offset = routed.offset;
+		}
 		return rd;
 	}
+	
+	/**
+	 * Drive time and distance from one station to many, without path, from the travel time matrix when it is built,
+	 * the other stations from a single search over the car network, see {@link CarsharingFastestPaths}
+	 * @param m
+	 * @param o
+	 * @param ds
+	 * @param deptime
+	 * @return route data of the reachable stations
+	 */
+	public static Map<CarsharingStationMobsim, RouteData> estimateTCC(CarsharingManager m, CarsharingStationMobsim o, Collection<CarsharingStationMobsim> ds, double deptime) {
+		Map<CarsharingStationMobsim, RouteData> routes = new IdentityHashMap<CarsharingStationMobsim, RouteData>();
+		List<CarsharingStationMobsim> missing = new ArrayList<CarsharingStationMobsim>();
+		List<Id<Link>> links = new ArrayList<Id<Link>>();
+		for(CarsharingStationMobsim d : ds) {
+			if(routes.containsKey(d)) continue;
+			RouteData rd = m.getConfig().isTravelTimeMatrix() ? m.travelTimes().get(o, d, deptime) : null;
+			if(rd != null) {
+				routes.put(d, rd);
+			} else {
+				missing.add(d);
+				links.add(d.facility().getLinkId());
+			}
+		}
+		if(!missing.isEmpty()) {
+			RouteData[] rds = m.fastestPaths().calc(o.facility().getLinkId(), links, deptime, m.ttc(), m.getConfig().getInteractionOffset());
+			for(int i = 0; i < rds.length; i++) {
+				if(rds[i] != null) routes.put(missing.get(i), rds[i]);
+			}
+		}
+		return routes;
+	}
 
 }
@@ -0,0 +1,320 @@
+package org.matsim.contrib.gcs.router;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.contrib.gcs.carsharing.CarsharingManager;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingStationMobsim;
+import org.matsim.contrib.gcs.carsharing.core.KdTree;
+import org.matsim.contrib.gcs.router.CarsharingNearestStationRouterModule.CarsharingLocationInfo;
+import org.matsim.contrib.gcs.utils.CarsharingUtils;
+import org.matsim.core.config.groups.PlansCalcRouteConfigGroup.ModeRoutingParams;
+import org.matsim.core.network.NetworkUtils;
+
+/**
+ * Walk catchments of the stations, from one multi-source Dijkstra over the network with the links walked both ways.
+ * Every node keeps its k nearest stations within the search distance, k being at least 2 so that the egress still has
+ * a station when the nearest one is the departure station, in flat arrays indexed by node.
+ *
+ * A location is looked up through the two nodes of its link, the stations of the link itself are reached straight.
+ * Walk distances come from the network, the walk times from the teleported speed of the access or egress walk.
+ * The catchments are built at setup, queries do not lock. Filters only see the stations kept by the nodes,
+ * a filtered query can be empty while farther stations would pass. Free floating spots move and are not in the
+ * catchments, departures merge them in by their beeline walk.
+ */
+public class CarsharingStationCatchments {
+
+	private static final class Label {
+		final int node;
+		final int station;
+		final double distance;
+		Label(int node, int station, double distance) {
+			this.node = node;
+			this.station = station;
+			this.distance = distance;
+		}
+	}
+
+	private static final Comparator<Label> CLOSEST_FIRST = new Comparator<Label>() {
+		@Override
+		public int compare(Label o1, Label o2) {
+			return Double.compare(o1.distance, o2.distance);
+		}
+	};
+
+	private final CarsharingManager m;
+	private Network network;
+	private Map<Id<Node>, Integer> nodeIndex;
+	private Map<Id<Link>, Integer> linkIndex;
+	private CarsharingStationMobsim[] stations;
+	private double[] nodeX;
+	private double[] nodeY;
+	private int[] nodeStation;
+	private double[] nodeDistance;
+	private int[] linkFrom;
+	private int[] linkTo;
+	private int[] linkStart;
+	private int[] linkStations;
+	private int k;
+
+	public CarsharingStationCatchments(CarsharingManager m) {
+		this.m = m;
+		this.clear();
+	}
+
+	/**
+	 * Compute the catchments of the current stations over the walk network
+	 * @param network
+	 */
+	public void build(Network network) {
+		this.network = network;
+		this.k = Math.max(2, this.m.getConfig().getStationCandidates());
+		double searchDistance = this.m.getConfig().getSearchDistance();
+
+		// nodes and links
+		int nodes = network.getNodes().size();
+		this.nodeIndex = new HashMap<Id<Node>, Integer>(2 * nodes);
+		this.nodeX = new double[nodes];
+		this.nodeY = new double[nodes];
+		for(Node n : network.getNodes().values()) {
+			int i = this.nodeIndex.size();
+			this.nodeIndex.put(n.getId(), i);
+			this.nodeX[i] = n.getCoord().getX();
+			this.nodeY[i] = n.getCoord().getY();
+		}
+		int links = network.getLinks().size();
+		this.linkIndex = new HashMap<Id<Link>, Integer>(2 * links);
+		this.linkFrom = new int[links];
+		this.linkTo = new int[links];
+		double[] linkLength = new double[links];
+		int[] degree = new int[nodes + 1];
+		for(Link l : network.getLinks().values()) {
+			int i = this.linkIndex.size();
+			this.linkIndex.put(l.getId(), i);
+			this.linkFrom[i] = this.nodeIndex.get(l.getFromNode().getId());
+			this.linkTo[i] = this.nodeIndex.get(l.getToNode().getId());
+			linkLength[i] = l.getLength();
+			degree[this.linkFrom[i]]++;
+			degree[this.linkTo[i]]++;
+		}
+		// adjacency, each link walked both ways
+		int[] adjStart = new int[nodes + 1];
+		for(int i = 0; i < nodes; i++) {
+			adjStart[i + 1] = adjStart[i] + degree[i];
+		}
+		int[] adjNode = new int[adjStart[nodes]];
+		double[] adjLength = new double[adjStart[nodes]];
+		int[] fill = Arrays.copyOf(adjStart, nodes);
+		for(int i = 0; i < links; i++) {
+			adjNode[fill[this.linkFrom[i]]] = this.linkTo[i];
+			adjLength[fill[this.linkFrom[i]]++] = linkLength[i];
+			adjNode[fill[this.linkTo[i]]] = this.linkFrom[i];
+			adjLength[fill[this.linkTo[i]]++] = linkLength[i];
+		}
+
+		// stations, seeded at both nodes of their link
+		ArrayList<CarsharingStationMobsim> list = new ArrayList<CarsharingStationMobsim>();
+		for(CarsharingStationMobsim s : this.m.getStations()) {
+			if(this.linkIndex.containsKey(s.facility().getLinkId())) list.add(s);
+		}
+		this.stations = list.toArray(new CarsharingStationMobsim[list.size()]);
+		this.linkStart = new int[links + 1];
+		for(CarsharingStationMobsim s : this.stations) {
+			this.linkStart[this.linkIndex.get(s.facility().getLinkId()) + 1]++;
+		}
+		for(int i = 0; i < links; i++) {
+			this.linkStart[i + 1] += this.linkStart[i];
+		}
+		this.linkStations = new int[this.stations.length];
+		fill = Arrays.copyOf(this.linkStart, links);
+		PriorityQueue<Label> queue = new PriorityQueue<Label>(Math.max(16, 2 * this.stations.length), CLOSEST_FIRST);
+		for(int s = 0; s < this.stations.length; s++) {
+			int l = this.linkIndex.get(this.stations[s].facility().getLinkId());
+			this.linkStations[fill[l]++] = s;
+			Coord c = this.stations[s].facility().getCoord();
+			for(int n : new int[] { this.linkFrom[l], this.linkTo[l] }) {
+				double d = distance(c, n);
+				if(d <= searchDistance) queue.add(new Label(n, s, d));
+			}
+		}
+
+		// k nearest distinct stations per node
+		this.nodeStation = new int[nodes * this.k];
+		this.nodeDistance = new double[nodes * this.k];
+		Arrays.fill(this.nodeStation, -1);
+		int[] settled = new int[nodes];
+		while(!queue.isEmpty()) {
+			Label label = queue.poll();
+			int n = label.node;
+			if(settled[n] == this.k || has(n, settled[n], label.station)) continue;
+			this.nodeStation[n * this.k + settled[n]] = label.station;
+			this.nodeDistance[n * this.k + settled[n]] = label.distance;
+			settled[n]++;
+			for(int a = adjStart[n]; a < adjStart[n + 1]; a++) {
+				int next = adjNode[a];
+				double d = label.distance + adjLength[a];
+				if(d <= searchDistance && settled[next] < this.k && !has(next, settled[next], label.station)) {
+					queue.add(new Label(next, label.station, d));
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param a
+	 * @param k
+	 * @param nbrOfVeh
+	 * @return the k nearest stations by walk or free floating spots within the search distance with at least nbrOfVeh available vehicles, closest first
+	 */
+	public List<CarsharingLocationInfo> departure(Activity a, int k, final int nbrOfVeh) {
+		KdTree.Filter<CarsharingStationMobsim> filter = new KdTree.Filter<CarsharingStationMobsim>() {
+			@Override
+			public boolean accept(CarsharingStationMobsim station) {
+				return nbrOfVeh <= 0 || m.booking().vehicleAvailability(station) >= nbrOfVeh;
+			}
+		};
+		ModeRoutingParams walk = this.m.getConfig().getAccessWalkCalcRoute();
+		List<CarsharingLocationInfo> stations = this.nearest(a.getCoord(), a.getLinkId(), k, filter, walk);
+		double euc_distance = this.m.getConfig().getSearchDistance()/walk.getBeelineDistanceFactor();
+		List<CarsharingStationMobsim> spots = this.m.floating().nearest(a.getCoord(), k, euc_distance, nbrOfVeh);
+		if(spots.isEmpty()) return stations;
+		List<CarsharingLocationInfo> locations = new ArrayList<CarsharingLocationInfo>(k);
+		int i = 0, j = 0;
+		CarsharingLocationInfo spot = null;
+		while(locations.size() < k && (i < stations.size() || j < spots.size() || spot != null)) {
+			if(spot == null && j < spots.size()) {
+				spot = new CarsharingLocationInfo(null);
+				spot.station = spots.get(j++);
+				double euc_dist = NetworkUtils.getEuclideanDistance(a.getCoord(), spot.station.facility().getCoord());
+				spot.distance = CarsharingUtils.distanceBeeline(euc_dist, walk);
+				spot.traveltime = CarsharingUtils.travelTimeBeeline(euc_dist, walk);
+			}
+			if(spot == null || (i < stations.size() && stations.get(i).traveltime <= spot.traveltime)) {
+				locations.add(stations.get(i++));
+			} else {
+				locations.add(spot);
+				spot = null;
+			}
+		}
+		return locations;
+	}
+
+	/**
+	 *
+	 * @param a
+	 * @param k
+	 * @param nbrOfVeh
+	 * @param s_toexclude
+	 * @return the k nearest stations by walk within the search distance with at least nbrOfVeh free parking slots, closest first
+	 */
+	public List<CarsharingLocationInfo> arrival(Activity a, int k, final int nbrOfVeh, final CarsharingStationMobsim s_toexclude) {
+		KdTree.Filter<CarsharingStationMobsim> filter = new KdTree.Filter<CarsharingStationMobsim>() {
+			@Override
+			public boolean accept(CarsharingStationMobsim station) {
+				return !station.equals(s_toexclude) && (nbrOfVeh <= 0 || m.booking().parkingAvailability(station) >= nbrOfVeh);
+			}
+		};
+		return this.nearest(a.getCoord(), a.getLinkId(), k, filter, this.m.getConfig().getEgressWalkCalcRoute());
+	}
+
+	/**
+	 *
+	 * @param c
+	 * @param linkId link of the location, the nearest link when <code>null</code> or not in the walk network
+	 * @param k
+	 * @param filter stations to consider, <code>null</code> for all
+	 * @param walk
+	 * @return the k nearest stations by walk within the search distance, closest first
+	 */
+	public List<CarsharingLocationInfo> nearest(Coord c, Id<Link> linkId, int k, KdTree.Filter<? super CarsharingStationMobsim> filter, ModeRoutingParams walk) {
+		List<CarsharingLocationInfo> locations = new ArrayList<CarsharingLocationInfo>();
+		if(this.network == null || this.stations.length == 0) return locations;
+		Integer l = (linkId == null) ? null : this.linkIndex.get(linkId);
+		if(l == null) l = this.linkIndex.get(NetworkUtils.getNearestLink(this.network, c).getId());
+		double searchDistance = this.m.getConfig().getSearchDistance();
+		int[] station = new int[2 * this.k + this.linkStart[l + 1] - this.linkStart[l]];
+		double[] distance = new double[station.length];
+		int size = 0;
+		for(int i = this.linkStart[l]; i < this.linkStart[l + 1]; i++) {
+			station[size] = this.linkStations[i];
+			distance[size++] = NetworkUtils.getEuclideanDistance(c, this.stations[this.linkStations[i]].facility().getCoord());
+		}
+		for(int n : new int[] { this.linkFrom[l], this.linkTo[l] }) {
+			double access = distance(c, n);
+			for(int j = n * this.k; j < (n + 1) * this.k && this.nodeStation[j] >= 0; j++) {
+				station[size] = this.nodeStation[j];
+				distance[size++] = access + this.nodeDistance[j];
+			}
+		}
+		// closest first, each station once
+		Integer[] order = new Integer[size];
+		for(int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		final double[] d = distance;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Double.compare(d[o1], d[o2]);
+			}
+		});
+		int[] seen = new int[size];
+		int seenSize = 0;
+		for(int i = 0; i < size && locations.size() < k; i++) {
+			int s = station[order[i]];
+			if(distance[order[i]] > searchDistance || contains(seen, seenSize, s)) continue;
+			seen[seenSize++] = s;
+			if(filter != null && !filter.accept(this.stations[s])) continue;
+			CarsharingLocationInfo location = new CarsharingLocationInfo(null);
+			location.station = this.stations[s];
+			location.distance = distance[order[i]];
+			location.traveltime = (int) (distance[order[i]] / walk.getTeleportedModeSpeed());
+			locations.add(location);
+		}
+		return locations;
+	}
+
+	public void clear() {
+		this.network = null;
+		this.nodeIndex = new HashMap<Id<Node>, Integer>();
+		this.linkIndex = new HashMap<Id<Link>, Integer>();
+		this.stations = new CarsharingStationMobsim[0];
+		this.nodeStation = new int[0];
+		this.nodeDistance = new double[0];
+	}
+
+	// *********
+
+	private static boolean contains(int[] a, int size, int v) {
+		for(int i = 0; i < size; i++) {
+			if(a[i] == v) return true;
+		}
+		return false;
+	}
+
+	private boolean has(int node, int settled, int station) {
+		for(int j = node * this.k; j < node * this.k + settled; j++) {
+			if(this.nodeStation[j] == station) return true;
+		}
+		return false;
+	}
+
+	private double distance(Coord c, int node) {
+		double dx = c.getX() - this.nodeX[node];
+		double dy = c.getY() - this.nodeY[node];
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+}
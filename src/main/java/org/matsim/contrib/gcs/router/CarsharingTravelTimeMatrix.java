@@ -0,0 +1,168 @@
+package org.matsim.contrib.gcs.router;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.gcs.carsharing.CarsharingManager;
+import org.matsim.contrib.gcs.carsharing.core.CarsharingStationMobsim;
+import org.matsim.contrib.gcs.router.CarsharingRouterUtils.RouteData;
+import org.matsim.core.router.util.TravelTime;
+
+/**
+ * Drive time and distance between every pair of stations. One search to all the stations is run from every station,
+ * see {@link CarsharingFastestPaths}.
+ *
+ * The travel times collected during the simulation are the current ones whatever the time asked, so the matrix has a single
+ * time bin: it is built when an iteration starts and refreshed from the collected travel times every 
+ * <code>travelTimeMatrixBin</code> seconds of the simulation, see {@link #refresh(double)}.
+ * Values are kept in dense float arrays indexed by [origin][destination], unreachable pairs are NaN. A build fills new arrays 
+ * and publishes them at once, lookups do not lock. Above <code>travelTimeMatrixMaxStations</code> stations the matrix stays empty.
+ */
+public class CarsharingTravelTimeMatrix {
+
+	private static Logger logger = Logger.getLogger(CarsharingTravelTimeMatrix.class);
+
+	public static final int HORIZON = 30 * 3600;
+
+	private final CarsharingManager m;
+	private volatile Table table;
+	private double refreshAt;
+
+	private static final class Table {
+		final Map<CarsharingStationMobsim, Integer> stationIndex;
+		final float[] time;
+		final float[] distance;
+		final int stations;
+		Table(Map<CarsharingStationMobsim, Integer> stationIndex, int stations) {
+			this.stationIndex = stationIndex;
+			this.stations = stations;
+			this.time = new float[stations * stations];
+			this.distance = new float[stations * stations];
+			Arrays.fill(this.time, Float.NaN);
+			Arrays.fill(this.distance, Float.NaN);
+		}
+	}
+
+	public CarsharingTravelTimeMatrix(CarsharingManager m) {
+		this.m = m;
+		this.clear();
+	}
+
+	/**
+	 * Rebuild the matrix from the travel times collected so far once the refresh interval is over, called at every time step
+	 * @param now
+	 */
+	public void refresh(double now) {
+		if(now < this.refreshAt) return;
+		this.build(this.m.fastestPaths(), this.m.ttc(), now, this.m.getScenario().getConfig().global().getNumberOfThreads());
+	}
+
+	/**
+	 * Compute the matrix of the current stations over the car network for a departure at <code>deptime</code>, 
+	 * on <code>threads</code> threads
+	 * @param paths
+	 * @param tt
+	 * @param deptime
+	 * @param threads
+	 */
+	public void build(final CarsharingFastestPaths paths, final TravelTime tt, final double deptime, int threads) {
+		final int offset = this.m.getConfig().getInteractionOffset();
+		this.refreshAt = deptime + this.m.getConfig().getTravelTimeMatrixBin();
+
+		// stations on the car network
+		final List<Id<Link>> stationLinks = new ArrayList<Id<Link>>();
+		Map<CarsharingStationMobsim, Integer> stationIndex = new IdentityHashMap<CarsharingStationMobsim, Integer>();
+		for(CarsharingStationMobsim s : this.m.getStations()) {
+			if(!paths.contains(s.facility().getLinkId())) continue;
+			stationIndex.put(s, stationLinks.size());
+			stationLinks.add(s.facility().getLinkId());
+		}
+		final int stations = stationLinks.size();
+		if(stations > this.m.getConfig().getTravelTimeMatrixMaxStations()) {
+			logger.warn("[TRAVEL-TIME-MATRIX] " + stations + " stations, more than " + this.m.getConfig().getTravelTimeMatrixMaxStations() + 
+					": no matrix, drives are estimated by search");
+			this.clear();
+			return;
+		}
+		final Table t = new Table(stationIndex, stations);
+		final float[] time = t.time;
+		final float[] distance = t.distance;
+
+		// one search per origin
+		threads = Math.max(1, Math.min(threads, stations));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for(int k = 0; k < threads; k++) {
+				final int from = (int) ((long) stations * k / threads);
+				final int to = (int) ((long) stations * (k + 1) / threads);
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for(int o = from; o < to; o++) {
+							RouteData[] routes = paths.calc(stationLinks.get(o), stationLinks, deptime, tt, offset);
+							int row = o * stations;
+							for(int d = 0; d < stations; d++) {
+								if(routes[d] == null) continue;
+								time[row + d] = routes[d].time;
+								distance[row + d] = (float) routes[d].distance;
+							}
+						}
+						return null;
+					}
+				});
+			}
+			for(Future<Void> f : executor.invokeAll(tasks)) {
+				f.get();
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException("Failed to build the station travel time matrix", e);
+		} finally {
+			executor.shutdown();
+		}
+		this.table = t;
+	}
+
+	/**
+	 *
+	 * @param o
+	 * @param d
+	 * @param deptime
+	 * @return drive time and distance without path from the last build, whatever the departure time, 
+	 * <code>null</code> if a station is not in the matrix or d is not reachable from o
+	 */
+	public RouteData get(CarsharingStationMobsim o, CarsharingStationMobsim d, double deptime) {
+		Table t = this.table;
+		Integer oi = t.stationIndex.get(o);
+		Integer di = t.stationIndex.get(d);
+		if(oi == null || di == null) return null;
+		int i = oi * t.stations + di;
+		if(Float.isNaN(t.time[i])) return null;
+		RouteData rd = new RouteData();
+		rd.offset = this.m.getConfig().getInteractionOffset();
+		rd.time = (int) t.time[i];
+		rd.distance = t.distance[i];
+		return rd;
+	}
+
+	public int size() {
+		return this.table.stations;
+	}
+
+	public void clear() {
+		this.table = new Table(new IdentityHashMap<CarsharingStationMobsim, Integer>(), 0);
+		this.refreshAt = Double.POSITIVE_INFINITY;
+	}
+
+}
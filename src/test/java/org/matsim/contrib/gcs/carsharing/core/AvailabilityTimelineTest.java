@@ -0,0 +1,165 @@
+package org.matsim.contrib.gcs.carsharing.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Sums and minimum running sums of the timeline against a scan of the events
+ */
+public class AvailabilityTimelineTest {
+
+	private static final class Event {
+		final double time;
+		final int delta;
+		Event(double time, int delta) {
+			this.time = time;
+			this.delta = delta;
+		}
+	}
+
+	private static final BookingTimeline.TimeFunction<Event> TIME = new BookingTimeline.TimeFunction<Event>() {
+		@Override
+		public double getTime(Event e) {
+			return e.time;
+		}
+	};
+
+	private static final AvailabilityTimeline.DeltaFunction<Event> DELTA = new AvailabilityTimeline.DeltaFunction<Event>() {
+		@Override
+		public int getDelta(Event e) {
+			return e.delta;
+		}
+	};
+
+	/**
+	 * sum and minimum over the slots [ceil(lb), floor(ub)], events in time order then in insertion order
+	 */
+	private static int[] scan(List<Event> events, double lb, double ub) {
+		List<Event> sorted = new ArrayList<Event>(events);
+		// stable sort by time keeps the insertion order of equal times
+		for(int i = 1; i < sorted.size(); i++) {
+			Event e = sorted.get(i);
+			int j = i - 1;
+			while(j >= 0 && sorted.get(j).time > e.time) {
+				sorted.set(j + 1, sorted.get(j));
+				j--;
+			}
+			sorted.set(j + 1, e);
+		}
+		int lo = (int) Math.max(0, Math.ceil(lb));
+		double hi = Math.floor(ub);
+		int sum = 0;
+		int min = 0;
+		for(Event e : sorted) {
+			int slot = (e.time < 0) ? 0 : (int) e.time;
+			if(slot < lo || slot > hi) continue;
+			sum += e.delta;
+			min = Math.min(min, sum);
+		}
+		return new int[] { sum, min };
+	}
+
+	private static void check(AvailabilityTimeline<Event> timeline, List<Event> events, Random random, int horizon) {
+		for(int q = 0; q < 200; q++) {
+			double lb = random.nextInt(horizon + 20) - 10;
+			if(random.nextBoolean()) lb += 0.5;
+			double ub = lb + random.nextInt(horizon / 2);
+			int[] expected = scan(events, lb, ub);
+			assertEquals(expected[0], timeline.sum(lb, ub));
+			assertEquals(expected[1], timeline.minimum(lb, ub));
+		}
+		int[] all = scan(events, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+		assertEquals(all[0], timeline.sum(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY));
+		assertEquals(all[1], timeline.minimum(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY));
+	}
+
+	private static Event event(Random random, int horizon) {
+		// few distinct times so that slots hold several events, some fractions and some negative times
+		double time = random.nextInt(horizon / 10) * 10;
+		if(random.nextInt(5) == 0) time += 0.25;
+		if(random.nextInt(50) == 0) time = -5;
+		return new Event(time, random.nextInt(7) - 3);
+	}
+
+	@Test
+	public void testSumAndMinimum() {
+		Random random = new Random(4711);
+		int horizon = 3000;
+		BookingTimeline<Event> events = new BookingTimeline<Event>(TIME);
+		AvailabilityTimeline<Event> timeline = new AvailabilityTimeline<Event>(events, DELTA);
+		List<Event> added = new ArrayList<Event>();
+		for(int i = 0; i < 2000; i++) {
+			Event e = event(random, horizon);
+			events.add(e);
+			added.add(e);
+			timeline.update(e.time);
+			if(i % 200 == 0) check(timeline, added, random, horizon);
+		}
+		check(timeline, added, random, horizon);
+		for(int i = 0; i < 1000; i++) {
+			Event e = added.remove(random.nextInt(added.size()));
+			events.remove(e);
+			timeline.update(e.time);
+		}
+		check(timeline, added, random, horizon);
+		events.clear();
+		timeline.clear();
+		check(timeline, new ArrayList<Event>(), random, horizon);
+	}
+
+	@Test
+	public void testGrowsBeyondTheInitialWindow() {
+		Random random = new Random(4712);
+		BookingTimeline<Event> events = new BookingTimeline<Event>(TIME);
+		AvailabilityTimeline<Event> timeline = new AvailabilityTimeline<Event>(events, DELTA);
+		List<Event> added = new ArrayList<Event>();
+		for(int i = 0; i < 500; i++) {
+			Event e = new Event(random.nextInt(1 << 20), random.nextInt(7) - 3);
+			events.add(e);
+			added.add(e);
+			timeline.update(e.time);
+		}
+		check(timeline, added, random, 1 << 20);
+	}
+
+	@Test
+	public void testVersionKeepsItsState() {
+		Random random = new Random(4713);
+		int horizon = 2000;
+		BookingTimeline<Event> events = new BookingTimeline<Event>(TIME);
+		AvailabilityTimeline<Event> timeline = new AvailabilityTimeline<Event>(events, DELTA);
+		List<Event> added = new ArrayList<Event>();
+		List<AvailabilityTimeline<Event>> versions = new ArrayList<AvailabilityTimeline<Event>>();
+		List<List<Event>> states = new ArrayList<List<Event>>();
+		for(int i = 0; i < 1500; i++) {
+			Event e = event(random, horizon);
+			events.add(e);
+			added.add(e);
+			timeline.update(e.time);
+			if(i % 300 == 0) {
+				versions.add(timeline.version(events.version()));
+				states.add(new ArrayList<Event>(added));
+			}
+		}
+		check(timeline, added, random, horizon);
+		for(int v = 0; v < versions.size(); v++) {
+			check(versions.get(v), states.get(v), random, horizon);
+		}
+		// the versions keep the arrays of before the clear
+		timeline.clear();
+		check(versions.get(versions.size() - 1), states.get(states.size() - 1), random, horizon);
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testVersionIsReadOnly() {
+		BookingTimeline<Event> events = new BookingTimeline<Event>(TIME);
+		AvailabilityTimeline<Event> timeline = new AvailabilityTimeline<Event>(events, DELTA);
+		timeline.version(events.version()).update(0);
+	}
+
+}
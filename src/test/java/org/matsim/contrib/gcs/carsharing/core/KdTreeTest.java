@@ -0,0 +1,257 @@
+package org.matsim.contrib.gcs.carsharing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * k nearest queries of the tree against a scan of all the points
+ */
+public class KdTreeTest {
+
+	private static final class Point {
+		final double x;
+		final double y;
+		final int[] attribute = new int[2];
+		Point(double x, double y) {
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	/**
+	 * squared distances of the k nearest points within distance whose attribute is at least minimum, closest first
+	 */
+	private static double[] scan(List<Point> points, double px, double py, int k, double distance, int a, int minimum) {
+		List<Double> d2 = new ArrayList<Double>();
+		for(Point p : points) {
+			if(a >= 0 && p.attribute[a] < minimum) continue;
+			double d = (p.x - px) * (p.x - px) + (p.y - py) * (p.y - py);
+			if(d <= distance * distance) d2.add(d);
+		}
+		double[] sorted = new double[d2.size()];
+		for(int i = 0; i < sorted.length; i++) {
+			sorted[i] = d2.get(i);
+		}
+		Arrays.sort(sorted);
+		return Arrays.copyOf(sorted, Math.min(k, sorted.length));
+	}
+
+	private static void check(KdTree<Point> tree, List<Point> points, Random random, int queries, int a) {
+		for(int q = 0; q < queries; q++) {
+			double px = random.nextDouble() * 1000;
+			double py = random.nextDouble() * 1000;
+			int k = 1 + random.nextInt(20);
+			double distance = (random.nextInt(4) == 0) ? Double.POSITIVE_INFINITY : random.nextDouble() * 300;
+			int minimum = (a < 0) ? 0 : random.nextInt(6);
+			double[] expected = scan(points, px, py, k, distance, a, minimum);
+			List<Point> found = tree.nearest(px, py, k, distance, null, a, minimum);
+			assertEquals(expected.length, found.size());
+			assertEquals(found.size(), new HashSet<Point>(found).size());
+			for(int i = 0; i < found.size(); i++) {
+				Point p = found.get(i);
+				assertTrue(points.contains(p));
+				assertEquals(expected[i], (p.x - px) * (p.x - px) + (p.y - py) * (p.y - py), 0);
+				if(a >= 0) assertTrue(p.attribute[a] >= minimum);
+			}
+		}
+	}
+
+	/**
+	 * Coordinates on a coarse grid, so that many points share one and splits have equal coordinates
+	 */
+	private static List<Point> points(Random random, int n) {
+		List<Point> points = new ArrayList<Point>();
+		for(int i = 0; i < n; i++) {
+			points.add(new Point(random.nextInt(50) * 20, random.nextInt(50) * 20));
+		}
+		return points;
+	}
+
+	private static void putAll(KdTree<Point> tree, List<Point> points) {
+		double[] x = new double[points.size()];
+		double[] y = new double[points.size()];
+		for(int i = 0; i < points.size(); i++) {
+			x[i] = points.get(i).x;
+			y[i] = points.get(i).y;
+		}
+		tree.putAll(x, y, points);
+	}
+
+	@Test
+	public void testNearestOfBuiltTree() {
+		Random random = new Random(4711);
+		List<Point> points = points(random, 3000);
+		KdTree<Point> tree = new KdTree<Point>();
+		putAll(tree, points);
+		assertEquals(points.size(), tree.size());
+		check(tree, points, random, 500, -1);
+	}
+
+	@Test
+	public void testNearestOfInsertedPoints() {
+		Random random = new Random(4712);
+		List<Point> points = points(random, 3000);
+		KdTree<Point> tree = new KdTree<Point>();
+		for(Point p : points) {
+			tree.put(p.x, p.y, p);
+		}
+		assertEquals(points.size(), tree.size());
+		check(tree, points, random, 500, -1);
+	}
+
+	@Test
+	public void testBoundedHeapKeepsTheClosest() {
+		KdTree<Point> tree = new KdTree<Point>();
+		List<Point> points = new ArrayList<Point>();
+		for(int i = 100; i > 0; i--) {
+			Point p = new Point(i, 0);
+			points.add(p);
+			tree.put(p.x, p.y, p);
+		}
+		List<Point> found = tree.nearest(0, 0, 3, Double.POSITIVE_INFINITY, null);
+		assertEquals(3, found.size());
+		assertEquals(1, found.get(0).x, 0);
+		assertEquals(2, found.get(1).x, 0);
+		assertEquals(3, found.get(2).x, 0);
+		assertEquals(0, tree.nearest(0, 0, 3, 0.5, null).size());
+		assertEquals(1, tree.nearest(0, 0, 3, 1, null).size()); // the radius is included
+	}
+
+	@Test
+	public void testFilter() {
+		Random random = new Random(4713);
+		final List<Point> points = points(random, 1000);
+		KdTree<Point> tree = new KdTree<Point>();
+		putAll(tree, points);
+		KdTree.Filter<Point> even = new KdTree.Filter<Point>() {
+			@Override
+			public boolean accept(Point p) {
+				return points.indexOf(p) % 2 == 0;
+			}
+		};
+		List<Point> accepted = new ArrayList<Point>();
+		for(int i = 0; i < points.size(); i += 2) {
+			accepted.add(points.get(i));
+		}
+		for(int q = 0; q < 100; q++) {
+			double px = random.nextDouble() * 1000;
+			double py = random.nextDouble() * 1000;
+			double[] expected = scan(accepted, px, py, 10, Double.POSITIVE_INFINITY, -1, 0);
+			List<Point> found = tree.nearest(px, py, 10, Double.POSITIVE_INFINITY, even);
+			assertEquals(expected.length, found.size());
+			for(int i = 0; i < found.size(); i++) {
+				Point p = found.get(i);
+				assertTrue(even.accept(p));
+				assertEquals(expected[i], (p.x - px) * (p.x - px) + (p.y - py) * (p.y - py), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testAttributeMaximaAfterUpdates() {
+		Random random = new Random(4714);
+		List<Point> points = points(random, 2000);
+		KdTree<Point> tree = new KdTree<Point>(2);
+		putAll(tree, points);
+		for(int round = 0; round < 5; round++) {
+			// raise and lower, the maxima of the subtrees have to follow both ways
+			for(int i = 0; i < 1000; i++) {
+				Point p = points.get(random.nextInt(points.size()));
+				int a = random.nextInt(2);
+				p.attribute[a] = random.nextInt(6);
+				tree.update(p, a, p.attribute[a]);
+			}
+			check(tree, points, random, 200, 0);
+			check(tree, points, random, 200, 1);
+		}
+		Point outside = new Point(0, 0);
+		tree.update(outside, 0, 5); // no effect
+		assertEquals(points.size(), tree.size());
+	}
+
+	@Test
+	public void testRemoveAndCompact() {
+		Random random = new Random(4715);
+		List<Point> points = points(random, 2000);
+		KdTree<Point> tree = new KdTree<Point>(1);
+		putAll(tree, points);
+		for(Point p : points) {
+			p.attribute[0] = 1 + random.nextInt(5);
+			tree.update(p, 0, p.attribute[0]);
+		}
+		assertFalse(tree.remove(0, 0, new Point(0, 0)));
+		// remove most of the points, the marked ones end up outnumbering the others and the tree is rebuilt
+		while(points.size() > 100) {
+			Point p = points.remove(random.nextInt(points.size()));
+			assertTrue(tree.remove(p.x, p.y, p));
+			assertFalse(tree.remove(p.x, p.y, p));
+			assertEquals(points.size(), tree.size());
+			if(points.size() % 300 == 0) {
+				check(tree, points, random, 50, -1);
+				check(tree, points, random, 50, 0);
+			}
+		}
+		// the attributes are kept by the rebuild
+		check(tree, points, random, 200, 0);
+		for(Point p : points(random, 500)) {
+			points.add(p);
+			tree.put(p.x, p.y, p);
+		}
+		check(tree, points, random, 200, -1);
+		tree.clear();
+		assertEquals(0, tree.size());
+		assertEquals(0, tree.nearest(500, 500, 5, Double.POSITIVE_INFINITY, null).size());
+	}
+
+	@Test
+	public void testRemoveAtAnotherLocationFails() {
+		KdTree<Point> tree = new KdTree<Point>();
+		Point p = new Point(10, 10);
+		tree.put(p.x, p.y, p);
+		assertFalse(tree.remove(10, 20, p));
+		assertTrue(tree.remove(10, 10, p));
+		assertEquals(0, tree.size());
+	}
+
+	@Test(timeout = 20000)
+	public void testEqualCoordinatesDoNotChain() {
+		// a chain would make every insertion and rebuild linear, hours for these points
+		List<Point> points = new ArrayList<Point>();
+		KdTree<Point> tree = new KdTree<Point>(1);
+		for(int i = 0; i < 100000; i++) {
+			Point p = new Point(500, (i % 2 == 0) ? 500 : 600);
+			points.add(p);
+			tree.put(p.x, p.y, p);
+		}
+		KdTree<Point> built = new KdTree<Point>(1);
+		putAll(built, points);
+		for(KdTree<Point> t : Arrays.asList(tree, built)) {
+			assertEquals(points.size(), t.size());
+			List<Point> found = t.nearest(500, 510, 5, Double.POSITIVE_INFINITY, null);
+			assertEquals(5, found.size());
+			for(Point p : found) {
+				assertEquals(500, p.y, 0);
+			}
+			for(int i = 0; i < points.size(); i += 7) {
+				t.update(points.get(i), 0, 1);
+			}
+			assertEquals(5, t.nearest(500, 600, 5, Double.POSITIVE_INFINITY, null, 0, 1).size());
+			for(int i = 0; i < points.size(); i += 2) {
+				Point p = points.get(i);
+				assertTrue(t.remove(p.x, p.y, p));
+			}
+			assertEquals(points.size() / 2, t.size());
+			assertEquals(600, t.nearest(500, 500, 1, Double.POSITIVE_INFINITY, null).get(0).y, 0);
+		}
+	}
+
+}
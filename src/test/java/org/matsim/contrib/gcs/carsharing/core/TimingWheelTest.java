@@ -0,0 +1,103 @@
+package org.matsim.contrib.gcs.carsharing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Expiries of the wheel against a scan of the scheduled deadlines
+ */
+public class TimingWheelTest {
+
+	private static final class Timer {
+		final long deadline;
+		long expired = -1;
+		Timer(long deadline) {
+			this.deadline = deadline;
+		}
+	}
+
+	@Test
+	public void testExpiresAtTheDeadlineInOrder() {
+		Random random = new Random(4711);
+		TimingWheel<Timer> wheel = new TimingWheel<Timer>();
+		final List<Timer> timers = new ArrayList<Timer>();
+		final long[] now = new long[] { 0 };
+		final long[] last = new long[] { Long.MIN_VALUE };
+		TimingWheel.ExpiryHandler<Timer> handler = new TimingWheel.ExpiryHandler<Timer>() {
+			@Override
+			public void expire(Timer t, long deadline) {
+				assertEquals(-1, t.expired);
+				assertTrue(deadline >= last[0]);
+				last[0] = deadline;
+				t.expired = now[0];
+			}
+		};
+		// deadlines on every level of the wheel and beyond, past ones expire at the next tick
+		long[] ranges = new long[] { 10, 64, 4096, 262144, 16777216, 100000000 };
+		for(int step = 0; step < 2000; step++) {
+			for(int i = random.nextInt(4); i > 0; i--) {
+				long deadline = now[0] - 5 + (long) (random.nextDouble() * ranges[random.nextInt(ranges.length)]);
+				Timer t = new Timer(Math.max(deadline, now[0] + 1));
+				timers.add(t);
+				wheel.schedule(deadline, t);
+			}
+			long to = now[0] + 1 + random.nextInt((step % 10 == 0) ? 200000 : 100);
+			int pending = 0;
+			int due = 0;
+			for(Timer t : timers) {
+				if(t.expired >= 0) continue;
+				pending++;
+				if(t.deadline <= to) due++;
+			}
+			assertEquals(pending, wheel.size());
+			last[0] = Long.MIN_VALUE;
+			now[0] = to;
+			assertEquals(due, wheel.advance(to, handler));
+			assertEquals(pending - due, wheel.size());
+		}
+		for(Timer t : timers) {
+			if(t.expired >= 0) {
+				// expired by the advance that went past the deadline, not later
+				assertTrue(t.deadline <= t.expired);
+			} else {
+				assertTrue(t.deadline > now[0]);
+			}
+		}
+		wheel.clear();
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testEveryTick() {
+		TimingWheel<Timer> wheel = new TimingWheel<Timer>();
+		final List<Timer> expired = new ArrayList<Timer>();
+		TimingWheel.ExpiryHandler<Timer> handler = new TimingWheel.ExpiryHandler<Timer>() {
+			@Override
+			public void expire(Timer t, long deadline) {
+				assertEquals(t.deadline, deadline);
+				expired.add(t);
+			}
+		};
+		List<Timer> timers = new ArrayList<Timer>();
+		for(long d = 1; d < 300000; d += 37) {
+			Timer t = new Timer(d);
+			timers.add(t);
+			wheel.schedule(d, t);
+		}
+		for(long time = 1; time < 300000; time++) {
+			int before = expired.size();
+			wheel.advance(time, handler);
+			for(int i = before; i < expired.size(); i++) {
+				assertEquals(time, expired.get(i).deadline);
+			}
+		}
+		assertEquals(timers, expired);
+	}
+
+}
@@ -0,0 +1,195 @@
+package org.matsim.contrib.gcs.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.gcs.router.CarsharingRouterUtils.RouteData;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.vehicles.Vehicle;
+
+/**
+ * Fastest paths against a label correcting search over all the links, with time dependent travel times
+ */
+public class CarsharingFastestPathsTest {
+
+	private static final int SIZE = 12;
+
+	/**
+	 * Grid of SIZE x SIZE nodes, links both ways with random lengths, some of them missing,
+	 * and a node only reached by a one way link.
+	 */
+	private static Network network(Random random) {
+		Network network = NetworkUtils.createNetwork();
+		Node[][] nodes = new Node[SIZE][SIZE];
+		for(int i = 0; i < SIZE; i++) {
+			for(int j = 0; j < SIZE; j++) {
+				nodes[i][j] = NetworkUtils.createAndAddNode(network, Id.createNodeId(i + "_" + j), new Coord(i * 200, j * 200));
+			}
+		}
+		int l = 0;
+		for(int i = 0; i < SIZE; i++) {
+			for(int j = 0; j < SIZE; j++) {
+				for(int[] n : new int[][] { { i + 1, j }, { i, j + 1 } }) {
+					if(n[0] >= SIZE || n[1] >= SIZE || random.nextInt(6) == 0) continue;
+					Node o = nodes[i][j];
+					Node d = nodes[n[0]][n[1]];
+					NetworkUtils.createAndAddLink(network, Id.createLinkId(l++), o, d, 150 + random.nextDouble() * 200, 5 + random.nextDouble() * 10, 1000, 1);
+					NetworkUtils.createAndAddLink(network, Id.createLinkId(l++), d, o, 150 + random.nextDouble() * 200, 5 + random.nextDouble() * 10, 1000, 1);
+				}
+			}
+		}
+		Node dead = NetworkUtils.createAndAddNode(network, Id.createNodeId("dead"), new Coord(-200, -200));
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("in"), nodes[0][0], dead, 300, 10, 1000, 1);
+		return network;
+	}
+
+	/**
+	 * Free speed travel time, up to 30% longer with the time of day. Slow enough to stay first in first out.
+	 */
+	private static final TravelTime TRAVEL_TIME = new TravelTime() {
+		@Override
+		public double getLinkTravelTime(Link link, double time, Person person, Vehicle vehicle) {
+			double free = link.getLength() / link.getFreespeed();
+			return free * (1 + 0.15 * (1 + Math.sin(time / 1800.0)));
+		}
+	};
+
+	/**
+	 * @return time and distance of the fastest drive from the end of o to the end of d, null if none
+	 */
+	private static RouteData reference(Network network, Link o, Link d, double deptime) {
+		RouteData rd = new RouteData();
+		if(o == d) {
+			rd.time = (int) TRAVEL_TIME.getLinkTravelTime(d, deptime, null, null);
+			rd.distance = d.getLength();
+			return rd;
+		}
+		Map<Node, Integer> nodes = new HashMap<Node, Integer>();
+		for(Node n : network.getNodes().values()) {
+			nodes.put(n, nodes.size());
+		}
+		double[] arrival = new double[nodes.size()];
+		double[] length = new double[nodes.size()];
+		Arrays.fill(arrival, Double.POSITIVE_INFINITY);
+		arrival[nodes.get(o.getToNode())] = deptime;
+		boolean changed = true;
+		while(changed) {
+			changed = false;
+			for(Link l : network.getLinks().values()) {
+				int from = nodes.get(l.getFromNode());
+				int to = nodes.get(l.getToNode());
+				if(arrival[from] == Double.POSITIVE_INFINITY) continue;
+				double at = arrival[from] + TRAVEL_TIME.getLinkTravelTime(l, arrival[from], null, null);
+				if(at < arrival[to] - 1e-9) {
+					arrival[to] = at;
+					length[to] = length[from] + l.getLength();
+					changed = true;
+				}
+			}
+		}
+		int start = nodes.get(d.getFromNode());
+		if(arrival[start] == Double.POSITIVE_INFINITY) return null;
+		double at = arrival[start] + TRAVEL_TIME.getLinkTravelTime(d, arrival[start], null, null);
+		rd.time = (int) (at - deptime);
+		rd.distance = length[start] + d.getLength();
+		return rd;
+	}
+
+	private static void assertSame(RouteData expected, RouteData rd) {
+		if(expected == null) {
+			assertNull(rd);
+			return;
+		}
+		assertNotNull(rd);
+		assertEquals(expected.time, rd.time, 1);
+		assertEquals(expected.distance, rd.distance, 1e-6);
+	}
+
+	@Test
+	public void testOneToMany() {
+		Random random = new Random(4711);
+		Network network = network(random);
+		CarsharingFastestPaths paths = new CarsharingFastestPaths(network);
+		List<Link> links = new ArrayList<Link>(network.getLinks().values());
+		for(int q = 0; q < 30; q++) {
+			Link o = links.get(random.nextInt(links.size()));
+			double deptime = random.nextInt(24 * 3600);
+			List<Id<Link>> ds = new ArrayList<Id<Link>>();
+			for(int i = 0; i < 10; i++) {
+				ds.add(links.get(random.nextInt(links.size())).getId());
+			}
+			ds.add(o.getId()); // same link
+			ds.add(Id.createLinkId("in"));
+			ds.add(Id.createLinkId("unknown"));
+			RouteData[] routes = paths.calc(o.getId(), ds, deptime, TRAVEL_TIME, 0);
+			assertEquals(ds.size(), routes.length);
+			for(int i = 0; i < ds.size(); i++) {
+				Link d = network.getLinks().get(ds.get(i));
+				if(d == null) {
+					assertNull(routes[i]);
+				} else {
+					assertSame(reference(network, o, d, deptime), routes[i]);
+				}
+			}
+		}
+		// nothing leaves the dead end
+		Link in = network.getLinks().get(Id.createLinkId("in"));
+		Link other = links.get(0).equals(in) ? links.get(1) : links.get(0);
+		assertNull(paths.calc(in.getId(), Arrays.asList(other.getId()), 0, TRAVEL_TIME, 0)[0]);
+		assertNull(paths.route(in.getId(), other.getId(), 0, TRAVEL_TIME, 0));
+	}
+
+	@Test
+	public void testPointToPointWithAndWithoutLandmarks() {
+		Random random = new Random(4712);
+		Network network = network(random);
+		CarsharingFastestPaths paths = new CarsharingFastestPaths(network);
+		List<Link> links = new ArrayList<Link>(network.getLinks().values());
+		for(int landmarks : new int[] { 0, 4 }) {
+			paths.prepareLandmarks(landmarks, TRAVEL_TIME, 900, 24 * 3600);
+			assertEquals(landmarks, paths.landmarks());
+			for(int q = 0; q < 60; q++) {
+				Link o = links.get(random.nextInt(links.size()));
+				Link d = links.get(random.nextInt(links.size()));
+				double deptime = random.nextInt(24 * 3600);
+				RouteData expected = reference(network, o, d, deptime);
+				RouteData rd = paths.route(o.getId(), d.getId(), deptime, TRAVEL_TIME, 0);
+				assertSame(expected, rd);
+				if(rd == null) continue;
+				// the path is a chain of links from o to d, as long as the route data
+				NetworkRoute route = (NetworkRoute) ((Leg) rd.path.get(0)).getRoute();
+				assertEquals(o.getId(), route.getStartLinkId());
+				assertEquals(d.getId(), route.getEndLinkId());
+				Node at = o.getToNode();
+				double distance = 0;
+				for(Id<Link> id : route.getLinkIds()) {
+					Link l = network.getLinks().get(id);
+					assertEquals(at, l.getFromNode());
+					at = l.getToNode();
+					distance += l.getLength();
+				}
+				if(o != d) assertEquals(at, d.getFromNode());
+				assertEquals(rd.distance, distance + d.getLength(), 1e-6);
+			}
+		}
+	}
+
+}